@@ -7,24 +7,39 @@
 package cs455.harvester;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import cs455.harvester.fetch.PageFetcher;
 import cs455.harvester.task.CrawlerTask;
 import cs455.harvester.thread.CrawlerThreadPool;
+import cs455.harvester.transport.BufferPool;
+import cs455.harvester.transport.PeerWriter;
 import cs455.harvester.transport.TCPReceiverThread;
-import cs455.harvester.transport.TCPSender;
+import cs455.harvester.transport.TCPSelectorServer;
 import cs455.harvester.util.CommandParser;
+import cs455.harvester.util.RoutingTable;
+import cs455.harvester.util.Settings;
 import cs455.harvester.wireformats.CrawlerSendsFinished;
 import cs455.harvester.wireformats.CrawlerSendsIncomplete;
 import cs455.harvester.wireformats.CrawlerSendsTask;
+import cs455.harvester.wireformats.CrawlerSendsTaskBatch;
 import cs455.harvester.wireformats.CrawlerSendsTaskComplete;
+import cs455.harvester.wireformats.CrawlerSendsTaskCompleteBatch;
 import cs455.harvester.wireformats.Event;
 import cs455.harvester.wireformats.EventFactory;
 import cs455.harvester.wireformats.Protocol;
@@ -33,17 +48,34 @@ import cs455.harvester.wireformats.Protocol;
 public class Crawler implements Node{
 
 	// Instance variables **************
-	private final int RECURSION_DEPTH = 5;
+	private final int RECURSION_DEPTH = Settings.getInt("crawl.depth", 5);
 	private final ServerSocket SERVER_SOCKET;
 	private final String MY_URL;
 	private final String FULL_URL;
+	// Which Crawler owns a URL, from the config file
+	private final RoutingTable ROUTES;
 	private final long startTime = System.nanoTime();
-
+	// Most tasks, or acknowledgements, sent to a Crawler per message, 1 for a message each
+	private final int BATCH_SIZE = Settings.getInt("forward.batch", 128);
+	// Longest a task or acknowledgement waits for its batch to fill
+	private final long BATCH_MS = Settings.getLong("forward.batch.ms", 50);
+
+	// Makes "send Incomplete, then submit received tasks" and "pool idle, so send Finished" exclusive
+	private final Object COMPLETION_LOCK = new Object();
+
+	/*
+	 * Nothing below is guarded by a lock: the maps are concurrent and
+	 * the counts atomic, and sending only queues on the peer's writer,
+	 * so neither the crawl nor the receivers ever wait on a socket
+	 */
 	private Map<String, String[]> connections;
-	private Map<String, TCPSender> myConnections;
-	private Map<String, Integer> forwardTaskCount;
-	private Map<String, Integer> receiveTaskCount;
+	private Map<String, PeerWriter> myConnections;
+	private ConcurrentMap<String, AtomicInteger> forwardTaskCount;
+	private ConcurrentMap<String, AtomicInteger> receiveTaskCount;
 	private Map<String, Boolean> crawlersComplete;
+	private Map<String, ConcurrentLinkedQueue<String>> taskBatches;
+	private Map<String, AtomicInteger> taskBatchSizes;
+	private Map<String, AtomicInteger> completeBatches;
 	private CrawlerThreadPool myPool;
 	private EventFactory ef = EventFactory.getInstance();
 	// Used for debug print statements
@@ -105,21 +137,21 @@ public class Crawler implements Node{
 	public Crawler(int port, int poolSize, String myUrl, String configPath) throws IOException{
 		// Initialize our containers for other Crawler connections
 		connections = new HashMap<String, String[]>();
-		myConnections = new HashMap<String, TCPSender>();
+		myConnections = new ConcurrentHashMap<String, PeerWriter>();
 
 		// Record keepers
-		forwardTaskCount = new HashMap<String, Integer>();
-		receiveTaskCount = new HashMap<String, Integer>();
-		crawlersComplete = new HashMap<String, Boolean>();
+		forwardTaskCount = new ConcurrentHashMap<String, AtomicInteger>();
+		receiveTaskCount = new ConcurrentHashMap<String, AtomicInteger>();
+		crawlersComplete = new ConcurrentHashMap<String, Boolean>();
+
+		// Tasks and acknowledgements waiting to go out, per Crawler
+		taskBatches = new ConcurrentHashMap<String, ConcurrentLinkedQueue<String>>();
+		taskBatchSizes = new ConcurrentHashMap<String, AtomicInteger>();
+		completeBatches = new ConcurrentHashMap<String, AtomicInteger>();
 
-		// Store only the www.root_url.com portion of URL for easier checking
-		// Checking for special case for Psych dept.
 		FULL_URL = myUrl;
-		String rootUrl = myUrl.split("/")[2];
-		if(rootUrl.equals("www.colostate.edu"))
-			MY_URL = "www.colostate.edu/Depts/Psychology";
-		else
-			MY_URL = rootUrl;
+		ROUTES = new RoutingTable();
+		String myName = null;
 
 		// Path to configuration file
 		Path path = Paths.get(configPath);
@@ -129,31 +161,37 @@ public class Crawler implements Node{
 				String[] temp = delimitConfig(scanner.nextLine());
 				String[] connection = temp[0].split(":");
 				String connectionRootUrl = temp[1].trim();
+				String name = addRoutes(temp);
 				/*
 				 * Add each connection from configuration file to connections list
-				 * Using HasMap, key is the RootURL of the connection, value is a String[]
+				 * Using HasMap, key is the name of the connection (its first
+				 * routing rule), value is a String[]
 				 * where String[0] = host and String[1] = port
 				 * Extra check to make sure we don't add ourself to the list
-				 * 
-				 * Also need extra step for Psych dept.
 				 */
-				if(!(connectionRootUrl.equals(myUrl))){
-					String cleanUrl = connectionRootUrl.split("/")[2];
-					if(cleanUrl.equals("www.colostate.edu"))
-						cleanUrl = "www.colostate.edu/Depts/Psychology";
-					connections.put(cleanUrl, connection);
-				}			
+				if(!(connectionRootUrl.equals(myUrl)))
+					connections.put(name, connection);
+				else
+					myName = name;
 
 			}catch(ArrayIndexOutOfBoundsException e){} // Catch out of bounds error to prevent program termination
 
 		}
 		scanner.close();
 
+		// Named the same way the other Crawlers name us, or by host if not in the config
+		if(myName == null){
+			myName = RoutingTable.hostOf(myUrl);
+			ROUTES.add(myName, myName);
+		}
+		MY_URL = myName;
+
 		// Instantiate the ThreadPool
 		myPool = new CrawlerThreadPool(poolSize, this);
 
-		// Open ServerSocket to accept data from other Messaging Nodes
-		SERVER_SOCKET = new ServerSocket(port);
+		// Open ServerSocket to accept data from other Messaging Nodes, through a channel for the selector transport
+		SERVER_SOCKET = ServerSocketChannel.open().socket();
+		SERVER_SOCKET.bind(new InetSocketAddress(port));
 	}
 
 	/**
@@ -171,9 +209,25 @@ public class Crawler implements Node{
 
 	/**
 	 * Listen method with embedded Thread class to
-	 * start listening for Crawler connections
+	 * start listening for Crawler connections.
+	 * With cs455.harvester.transport=nio (the default) every
+	 * connection is instead served by a TCPSelectorServer on
+	 * transport.threads (default 2) threads, reading into pooled
+	 * buffers of transport.buffer.kb (default 64)
 	 */
 	public void listen(){
+		if(Settings.getString("transport", "nio").equals("nio")){
+			try {
+				TCPSelectorServer server = new TCPSelectorServer(SERVER_SOCKET.getChannel(), this,
+						Settings.getInt("transport.threads", 2),
+						new BufferPool(Settings.getInt("transport.buffer.kb", 64) << 10, Settings.getInt("transport.buffers", 64)));
+				server.start();
+				System.out.println("Crawler listening for connections on port: " + SERVER_SOCKET.getLocalPort());
+				return;
+			} catch (IOException e) {
+				System.err.println("Unable to start selector transport, using a thread per connection: " + e.getMessage());
+			}
+		}
 		// "this" reference to use for spawning the listening Thread
 		final Crawler crawler = this;
 		// "listener" Thread to accept incoming connections
@@ -236,46 +290,77 @@ public class Crawler implements Node{
 	}
 
 	/**
-	 * Setup connections to other Crawlers
+	 * Sends any batched tasks and acknowledgements every BATCH_MS,
+	 * so none waits long for its batch to fill
+	 */
+	public void batcher(){
+		if(BATCH_SIZE <= 1)
+			return;
+		Thread batcher = new Thread(new Runnable() {
+			public void run() {
+				while(true){
+					try {
+						Thread.sleep(BATCH_MS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					flushBatches();
+				}
+			}
+		});
+		batcher.setDaemon(true);
+		batcher.start();
+	}
+
+	/**
+	 * Setup connections to other Crawlers. Each gets a PeerWriter
+	 * queuing at most transport.queue (default 65536) messages and
+	 * writing up to transport.write.kb (default 64) at a time
 	 * @return boolean
 	 */
 	public boolean setupConnections(){
 		boolean success = true;
-		synchronized(connections){
-			for (Map.Entry<String, String[]> entry : connections.entrySet()) {
-				String rootUrl = entry.getKey();
-				String[] connection = entry.getValue();
-				Socket socket;
-				try {
-					socket = new Socket(connection[0], Integer.parseInt(connection[1]));
-					TCPSender sender = new TCPSender(socket);
-					// sender.start();
-					/*
-					 * If here, setup successful, add connection to connections list,
-					 * and set completion tracker list to false for this entry
-					 */
-					myConnections.put(rootUrl, sender);
-					crawlersComplete.put(rootUrl, false);
-				} catch (UnknownHostException e) {
-					success = false;
-					//					System.out.println("Error connecting to crawler "+ connection[0] +", unknown host error occurred: ");
-					//					System.err.println(e.getMessage());
-				} catch (IOException e) {
-					success = false;
-					//					System.out.println("Error connecting to crawler " + connection[0] +": ");
-					//					System.err.println(e.getMessage());
-				}
+		for (Map.Entry<String, String[]> entry : connections.entrySet()) {
+			String rootUrl = entry.getKey();
+			String[] connection = entry.getValue();
+			Socket socket;
+			try {
+				socket = new Socket(connection[0], Integer.parseInt(connection[1]));
+				PeerWriter writer = new PeerWriter(socket, rootUrl, Settings.getInt("transport.queue", 65536),
+						Settings.getInt("transport.write.kb", 64) << 10);
+				writer.start();
+				/*
+				 * If here, setup successful, add connection to connections list,
+				 * and set completion tracker list to false for this entry
+				 */
+				forwardTaskCount.put(rootUrl, new AtomicInteger());
+				receiveTaskCount.put(rootUrl, new AtomicInteger());
+				taskBatches.put(rootUrl, new ConcurrentLinkedQueue<String>());
+				taskBatchSizes.put(rootUrl, new AtomicInteger());
+				completeBatches.put(rootUrl, new AtomicInteger());
+				crawlersComplete.put(rootUrl, false);
+				myConnections.put(rootUrl, writer);
+			} catch (UnknownHostException e) {
+				success = false;
+				//					System.out.println("Error connecting to crawler "+ connection[0] +", unknown host error occurred: ");
+				//					System.err.println(e.getMessage());
+			} catch (IOException e) {
+				success = false;
+				//					System.out.println("Error connecting to crawler " + connection[0] +": ");
+				//					System.err.println(e.getMessage());
 			}
-			
-			/*
-			 * Start task, and initiate heartbeat
-			 * Heartbeat used to determine if all Crawlers complete or not
-			 */
-			startTask();
-			heartBeat();
-			
 		}
 
+		/*
+		 * Start task, and initiate heartbeat
+		 * Heartbeat used to determine if all Crawlers complete or not.
+		 * Its initial wait no longer holds any lock, events from other
+		 * Crawlers are handled meanwhile
+		 */
+		batcher();
+		startTask();
+		heartBeat();
+
 		return success;
 	}
 
@@ -288,6 +373,40 @@ public class Crawler implements Node{
 		return config.split(",");		
 	}
 
+	/**
+	 * Add the URLs a config line's Crawler owns to the routing table.
+	 * Lines are host:port,rootUrl followed by any number of
+	 * host[/path] ownership rules, e.g. www.colostate.edu/Depts/Psychology
+	 * to own only part of a shared host. Without rules the Crawler
+	 * owns its root URL's whole host
+	 * @param String[] config, the line split on ','
+	 * @return String name of the Crawler, its first rule
+	 */
+	private String addRoutes(String[] config){
+		String name = config.length > 2 ? RoutingTable.hostOf(config[2]) + pathOf(config[2]) : RoutingTable.hostOf(config[1]);
+		for(int i = 2; i < config.length; i++)
+			ROUTES.add(config[i].trim(), name);
+		if(config.length <= 2)
+			ROUTES.add(name, name);
+		return name;
+	}
+
+	/**
+	 * @param String rule, host[/path]
+	 * @return its path without any trailing '/', empty if none
+	 */
+	private String pathOf(String rule){
+		String spec = rule.trim();
+		int scheme = spec.indexOf("://");
+		int slash = spec.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+		if(slash < 0)
+			return "";
+		String path = spec.substring(slash);
+		while(path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		return path;
+	}
+
 	/**
 	 * Returns the Crawlers rootUrl
 	 * @return String
@@ -320,6 +439,14 @@ public class Crawler implements Node{
 			crawlerReceivesIncomplete(event);
 			break;
 
+		case Protocol.CRAWLER_SENDS_TASK_BATCH:
+			receiveTaskBatchFromCrawler(event);
+			break;
+
+		case Protocol.CRAWLER_SENDS_TASK_COMPLETE_BATCH:
+			crawlerReceivesTaskCompleteBatch(event);
+			break;
+
 		default:
 			System.out.println("Unrecognized event type received.");
 
@@ -331,10 +458,8 @@ public class Crawler implements Node{
 	 * @param Event e
 	 */
 	private void crawlerReceivesIncomplete(Event e){
-		synchronized(connections){
-			CrawlerSendsIncomplete crawlerIncomplete = (CrawlerSendsIncomplete)e;
-			crawlersComplete.put(crawlerIncomplete.getOriginatingUrl(), false);
-		}
+		CrawlerSendsIncomplete crawlerIncomplete = (CrawlerSendsIncomplete)e;
+		crawlersComplete.put(crawlerIncomplete.getOriginatingUrl(), false);
 	}
 
 	/**
@@ -342,7 +467,7 @@ public class Crawler implements Node{
 	 */
 	private void crawlerSendsIncomplete(){
 		Event crawlerSendsIncomplete = ef.buildEvent(Protocol.CRAWLER_SENDS_INCOMPLETE, MY_URL);
-		sendToAll(crawlerSendsIncomplete.getBytes());
+		sendToAll(crawlerSendsIncomplete);
 	}
 
 	/**
@@ -350,10 +475,8 @@ public class Crawler implements Node{
 	 * @param Event e
 	 */
 	private void crawlerReceivesFinished(Event e){
-		synchronized(connections){
-			CrawlerSendsFinished crawlerFinished = (CrawlerSendsFinished)e;
-			crawlersComplete.put(crawlerFinished.getOriginatingUrl(), true);
-		}
+		CrawlerSendsFinished crawlerFinished = (CrawlerSendsFinished)e;
+		crawlersComplete.put(crawlerFinished.getOriginatingUrl(), true);
 	}
 
 	/**
@@ -361,7 +484,7 @@ public class Crawler implements Node{
 	 */
 	private void crawlerSendsFinished(){
 		Event crawlerSendsFinished = ef.buildEvent(Protocol.CRAWLER_SENDS_FINISHED, MY_URL);
-		sendToAll(crawlerSendsFinished.getBytes());
+		sendToAll(crawlerSendsFinished);
 	}
 
 	/**
@@ -369,36 +492,39 @@ public class Crawler implements Node{
 	 * @param Event e
 	 */
 	private void crawlerReceivesTaskComplete(Event e){
-		synchronized(connections){
-			CrawlerSendsTaskComplete taskComplete = (CrawlerSendsTaskComplete)e;
-			/*
-			 * Received finished task from Crawler, change status
-			 * in forwarded task to true so we know it's completed
-			 */
-			String originator = taskComplete.getOriginatingUrl();
-			Integer count = receiveTaskCount.get(originator);
-			if (count == null) {
-				receiveTaskCount.put(originator, 1);
-			}
-			else {
-				receiveTaskCount.put(originator, count + 1);
-			}
-		}
+		CrawlerSendsTaskComplete taskComplete = (CrawlerSendsTaskComplete)e;
+		/*
+		 * Received finished task from Crawler, change status
+		 * in forwarded task to true so we know it's completed
+		 */
+		counter(receiveTaskCount, taskComplete.getOriginatingUrl()).incrementAndGet();
 	}
 
 	/**
-	 * Send completion Event to originating Crawler
+	 * Receive notification that a number of forwarded tasks completed
+	 * @param Event e
+	 */
+	private void crawlerReceivesTaskCompleteBatch(Event e){
+		CrawlerSendsTaskCompleteBatch taskComplete = (CrawlerSendsTaskCompleteBatch)e;
+		counter(receiveTaskCount, taskComplete.getOriginatingUrl()).addAndGet(taskComplete.getCompleted());
+	}
+
+	/**
+	 * Send completion Event to originating Crawler, batched
+	 * with others unless forward.batch is 1
 	 * @param String destUrl
 	 */
 	public void crawlerSendsTaskComplete(String destUrl){
-		synchronized(connections){
-			Event crawlerSendsTaskComplete = ef.buildEvent(Protocol.CRAWLER_SENDS_TASK_COMPLETE, MY_URL);
-			try {
-				myConnections.get(destUrl).sendData(crawlerSendsTaskComplete.getBytes());
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		PeerWriter writer = myConnections.get(destUrl);
+		if(writer == null)
+			return;
+		if(BATCH_SIZE > 1){
+			if(completeBatches.get(destUrl).incrementAndGet() >= BATCH_SIZE)
+				flushCompleteBatch(destUrl);
+			return;
 		}
+		Event crawlerSendsTaskComplete = ef.buildEvent(Protocol.CRAWLER_SENDS_TASK_COMPLETE, MY_URL);
+		writer.send(crawlerSendsTaskComplete);
 	}
 
 	/**
@@ -406,79 +532,147 @@ public class Crawler implements Node{
 	 * @param Event e
 	 */
 	private void receiveTaskFromCrawler(Event e){
-		synchronized(connections){
+		// Create the new task and start it up
+		CrawlerSendsTask task = (CrawlerSendsTask)e;
+		String urlToCrawl = task.getUrlToCrawl();
+		String originatingUrl = task.getOriginatingCrawlerUrl();
+		String parentUrl = urlToCrawl;
+
+		if(debug)
+			System.out.println(""
+					+ "\n\n************************************************************\n"
+					+ " Received task from crawler ["+ originatingUrl+"]\n"
+					+ " Requested crawl of URL: [" + urlToCrawl + "]\n"
+					+ "************************************************************\n\n");
+
+		CrawlerTask newTask = new CrawlerTask(RECURSION_DEPTH, urlToCrawl, parentUrl, MY_URL, myPool, originatingUrl);
+		synchronized(COMPLETION_LOCK){
 			// If receiving a new task, we're not finished, report it
 			crawlerSendsIncomplete();
-			// Create the new task and start it up
-			CrawlerSendsTask task = (CrawlerSendsTask)e;
-			String urlToCrawl = task.getUrlToCrawl();
-			String originatingUrl = task.getOriginatingCrawlerUrl();
-			String parentUrl = urlToCrawl;
+			myPool.submit(newTask);
+		}
+	}
 
+	/**
+	 * Receive a batch of tasks from other crawler
+	 * @param Event e
+	 */
+	private void receiveTaskBatchFromCrawler(Event e){
+		CrawlerSendsTaskBatch batch = (CrawlerSendsTaskBatch)e;
+		String originatingUrl = batch.getOriginatingCrawlerUrl();
+
+		if(debug)
+			System.out.println(""
+					+ "\n\n************************************************************\n"
+					+ " Received " + batch.getUrlsToCrawl().size() + " tasks from crawler ["+ originatingUrl+"]\n"
+					+ "************************************************************\n\n");
+
+		List<CrawlerTask> tasks = new ArrayList<CrawlerTask>(batch.getUrlsToCrawl().size());
+		for(String urlToCrawl : batch.getUrlsToCrawl())
+			tasks.add(new CrawlerTask(RECURSION_DEPTH, urlToCrawl, urlToCrawl, MY_URL, myPool, originatingUrl));
+		synchronized(COMPLETION_LOCK){
+			// If receiving new tasks, we're not finished, report it once for the batch
+			crawlerSendsIncomplete();
+			for(CrawlerTask task : tasks)
+				myPool.submit(task);
+		}
+	}
+
+	/**
+	 * Send URL to connected clients, batched
+	 * with others unless forward.batch is 1
+	 * @param String crawlUrl
+	 */
+	public void sendTaskToCrawler(String crawlUrl){
+		// The Crawler owning crawlUrl, if it's one we're connected to
+		String key = ROUTES.route(crawlUrl);
+		if (key != null && myConnections.containsKey(key)) {
 			if(debug)
 				System.out.println(""
 						+ "\n\n************************************************************\n"
-						+ " Received task from crawler ["+ originatingUrl+"]\n"
-						+ " Requested crawl of URL: [" + urlToCrawl + "]\n"
+						+ " Sending task to Crawler [" + key + "]\n"
+						+ " Requesting crawl of URL: [" + crawlUrl + "]\n"
 						+ "************************************************************\n\n");
+			/*
+			 * Need to keep track of forwarded tasks.
+			 * Counted before it's queued, so it can't be acknowledged first
+			 */
+			forwardTaskCount.get(key).incrementAndGet();
+			if(BATCH_SIZE > 1){
+				taskBatches.get(key).add(crawlUrl);
+				if(taskBatchSizes.get(key).incrementAndGet() >= BATCH_SIZE)
+					flushTaskBatch(key);
+				return;
+			}
+			Event crawlerSendsTask = ef.buildEvent(Protocol.CRAWLER_SENDS_TASK, crawlUrl + ";" + MY_URL);
+			myConnections.get(key).send(crawlerSendsTask);
+		}
+	}
 
-			CrawlerTask newTask = new CrawlerTask(RECURSION_DEPTH, urlToCrawl, parentUrl, MY_URL, myPool, originatingUrl);
-			myPool.submit(newTask);
+	/**
+	 * Send every batched task and acknowledgement
+	 */
+	public void flushBatches(){
+		for (String key : myConnections.keySet()) {
+			flushTaskBatch(key);
+			flushCompleteBatch(key);
 		}
 	}
 
 	/**
-	 * Send URL to connected clients
-	 * @param String crawlUrl
+	 * Send the tasks batched for a Crawler, at most BATCH_SIZE a message.
+	 * Any number of threads may flush at once, each takes its own URLs
+	 * @param String destUrl
 	 */
-	public void sendTaskToCrawler(String crawlUrl){
-		synchronized(connections){
-			Event crawlerSendsTask = ef.buildEvent(Protocol.CRAWLER_SENDS_TASK, crawlUrl + ";" + MY_URL);
-			try {
-				for (String key : myConnections.keySet()) {
-					if (crawlUrl.toLowerCase().contains(key.toLowerCase())) {
-						if(debug)
-							System.out.println(""
-									+ "\n\n************************************************************\n"
-									+ " Sending task to Crawler [" + key + "]\n"
-									+ " Requesting crawl of URL: [" + crawlUrl + "]\n"
-									+ "************************************************************\n\n");
-						/*
-						 * Need to keep track of forwarded tasks.
-						 * Place dest. URL in forwarded tasks, with status false
-						 */
-						Integer count = forwardTaskCount.get(key);
-						if (count == null) {
-							forwardTaskCount.put(key, 1);
-						}
-						else {
-							forwardTaskCount.put(key, count + 1);
-						}
-						myConnections.get(key).sendData(crawlerSendsTask.getBytes());
-						break;
-					}
-				}
-			} catch (IOException e) {
-				// e.printStackTrace();
-			}
+	private void flushTaskBatch(String destUrl){
+		ConcurrentLinkedQueue<String> queue = taskBatches.get(destUrl);
+		String url;
+		while((url = queue.poll()) != null){
+			List<String> batch = new ArrayList<String>(Math.min(BATCH_SIZE, taskBatchSizes.get(destUrl).get() + 1));
+			do {
+				batch.add(url);
+			} while(batch.size() < BATCH_SIZE && (url = queue.poll()) != null);
+			taskBatchSizes.get(destUrl).addAndGet(-batch.size());
+			myConnections.get(destUrl).send(ef.buildBatchEvent(Protocol.CRAWLER_SENDS_TASK_BATCH, MY_URL, batch, 0));
 		}
 	}
 
+	/**
+	 * Send the acknowledgements batched for a Crawler as one message
+	 * @param String destUrl
+	 */
+	private void flushCompleteBatch(String destUrl){
+		int count = completeBatches.get(destUrl).getAndSet(0);
+		if(count == 0)
+			return;
+		myConnections.get(destUrl).send(ef.buildBatchEvent(Protocol.CRAWLER_SENDS_TASK_COMPLETE_BATCH, MY_URL, null, count));
+	}
+
 	/**
 	 * Send message to all clients
-	 * @param bytes
-	 */
-	private void sendToAll(byte[] bytes){
-		synchronized(connections){
-			for (String key : myConnections.keySet()) {
-				try {
-					myConnections.get(key).sendData(bytes);
-				} catch (IOException e) {
-					System.out.println("Error sending data to Crawlers");
-					e.printStackTrace();
-				}
-			}
+	 * @param Event event
+	 */
+	private void sendToAll(Event event){
+		for (PeerWriter writer : myConnections.values()) {
+			if(!writer.send(event))
+				System.out.println("Error sending data to Crawlers");
+		}
+	}
+
+	/**
+	 * @param ConcurrentMap counters
+	 * @param String key
+	 * @return the counter for key, created at zero if there wasn't one
+	 */
+	private AtomicInteger counter(ConcurrentMap<String, AtomicInteger> counters, String key){
+		AtomicInteger counter = counters.get(key);
+		if(counter == null){
+			AtomicInteger created = new AtomicInteger();
+			counter = counters.putIfAbsent(key, created);
+			if(counter == null)
+				counter = created;
 		}
+		return counter;
 	}
 
 	/**
@@ -491,82 +685,105 @@ public class Crawler implements Node{
 	 * @return boolean status
 	 */
 	public boolean completionCheck(){
-		synchronized(connections){
+		// Nothing may be left waiting in a batch
+		flushBatches();
+		/*
+		 * This caused a hold forever, b/c each Crawler
+		 * was waiting on other one to finish.
+		 * 
+		 * Need to do another check after I sent completion.
+		 * 
+		 * Held against the receivers, so a task received now either
+		 * shows in the pool here or has its Incomplete queued after
+		 * our Finished, never the other way round
+		 */
+		synchronized(COMPLETION_LOCK){
+			if(!(myPool.isComplete()))
+				return false;
 			/*
-			 * This caused a hold forever, b/c each Crawler
-			 * was waiting on other one to finish.
-			 * 
-			 * Need to do another check after I sent completion.
+			 * The counts are still read one at a time. Reading the
+			 * acknowledgements first means equal counts can't be a
+			 * stale forward count: acknowledgements never pass forwards
 			 */
 			for (String key : forwardTaskCount.keySet()) {
-				if(!(forwardTaskCount.get(key).equals(receiveTaskCount.get(key))))
+				int received = counter(receiveTaskCount, key).get();
+				if(forwardTaskCount.get(key).get() != received)
 					return false;
 			}
-			if(!(myPool.isComplete()))
-				return false;
 
 			// Send finished message if done with all tasks
 			crawlerSendsFinished();
+			return true;
 		}
-		return true;
 	}
 
 	/**
 	 * This is the final check. If the above conditions hold,
 	 * and all Crawlers report finished, then harvesting is complete.
+	 * Only the heartbeat calls it
 	 * @return boolean status
 	 */
 	private boolean allCrawlerCompleted(){
-		synchronized(connections){
-			if(!completionCheck())
-				return false;
-			if(crawlersComplete.containsValue(false))
-				return false;
+		if(!completionCheck())
+			return false;
+		if(crawlersComplete.containsValue(false))
+			return false;
 
-			if(debug)
-				System.out.println("\n\n******************************\n CRAWLER COMPLETED ALL TASKS \n******************************\n\n");
-			/*
-			 * If here, everything has successfully completed!!
-			 * All my tasks are done, and all other Crawlers have reported
-			 * to me they're complete.
-			 * 
-			 * create the directory structure for this Crawler
-			 */
+		if(debug)
+			System.out.println("\n\n******************************\n CRAWLER COMPLETED ALL TASKS \n******************************\n\n");
+		/*
+		 * If here, everything has successfully completed!!
+		 * All my tasks are done, and all other Crawlers have reported
+		 * to me they're complete.
+		 * 
+		 * create the directory structure for this Crawler
+		 */
 
-			if(timer){
-				long endTime = System.nanoTime();
-				long duration = (endTime - startTime)/1000000000; // duration in seconds
-				System.out.println("\n\n*******************************************\n CRAWLER COMPLETED IN "+duration/60+"mins / "+duration%60+"secs \n*******************************************\n\n");
-			}
+		if(timer){
+			long endTime = System.nanoTime();
+			long duration = (endTime - startTime)/1000000000; // duration in seconds
+			System.out.println("\n\n*******************************************\n CRAWLER COMPLETED IN "+duration/60+"mins / "+duration%60+"secs \n"
+					+ " DUPLICATE FETCHES PREVENTED: "+myPool.getDuplicatesPrevented()+" \n"
+					+ " LINKS DISALLOWED BY ROBOTS.TXT: "+myPool.getRobotsBlocked()+" \n"
+					+ " NEAR-DUPLICATE PAGES NOT EXPANDED: "+myPool.getNearDuplicates()+" \n*******************************************\n\n");
+		}
 
-			myPool.createDirectory();
+		myPool.createDirectory();
 
-			return true;
-		}
+		return true;
 	}
 
 	/**
 	 * Helper method, will print out statuses
 	 */
 	public void printCompletionReport(){
-		synchronized(connections){
-			System.out.println("\n\n******************************\n");
-			System.out.println("Completion status of other Crawlers:");
-			for (String key : crawlersComplete.keySet()) {
-				System.out.println(key + " " + crawlersComplete.get(key));
-			}
-			System.out.println("\nForwarded tasks count:");
-			for (String key : forwardTaskCount.keySet()) {
-				System.out.println(key + " " + forwardTaskCount.get(key));
-			}
-			System.out.println("\nForwarded tasks completion count:");
-			for (String key : receiveTaskCount.keySet()) {
-				boolean complete = receiveTaskCount.get(key).equals(forwardTaskCount.get(key));
-				System.out.println(key + " " + receiveTaskCount.get(key) + " (" + complete + ")");
-			}
-			System.out.println("\nThreadPool status: " + myPool.isComplete());
-			System.out.println("\n******************************\n\n");
+		System.out.println("\n\n******************************\n");
+		System.out.println("Completion status of other Crawlers:");
+		for (String key : crawlersComplete.keySet()) {
+			System.out.println(key + " " + crawlersComplete.get(key));
 		}
+		System.out.println("\nForwarded tasks count:");
+		for (String key : forwardTaskCount.keySet()) {
+			System.out.println(key + " " + forwardTaskCount.get(key));
+		}
+		System.out.println("\nForwarded tasks completion count:");
+		for (String key : receiveTaskCount.keySet()) {
+			AtomicInteger forwarded = forwardTaskCount.get(key);
+			boolean complete = forwarded != null && receiveTaskCount.get(key).get() == forwarded.get();
+			System.out.println(key + " " + receiveTaskCount.get(key) + " (" + complete + ")");
+		}
+		System.out.println("\nMessages queued / written / socket writes per Crawler:");
+		for (String key : myConnections.keySet()) {
+			PeerWriter writer = myConnections.get(key);
+			System.out.println(key + " " + writer.getQueued() + " / " + writer.getFramesWritten() + " / " + writer.getWrites());
+		}
+		System.out.println("\nThreadPool status: " + myPool.isComplete());
+		System.out.println("\nDuplicate fetches prevented by canonicalization: " + myPool.getDuplicatesPrevented());
+		System.out.println("\nLinks disallowed by robots.txt: " + myPool.getRobotsBlocked());
+		System.out.println("\nNear-duplicate pages not expanded: " + myPool.getNearDuplicates());
+		System.out.println("\nBody bytes received / decoded per host:");
+		System.out.print(PageFetcher.getInstance().getStats());
+		System.out.println("\n******************************\n\n");
 	}
 
 	/**
@@ -0,0 +1,140 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Caps the number of requests open at once, both per host and in
+ * total. HTTP/1.1 runs one request per connection, so this also caps
+ * the sockets the HttpClient pool will open to each host.
+ * 
+ * acquire() never blocks, it returns a future that completes once a
+ * slot is free, so async fetches queue without holding a thread.
+ * Waiters queue per host, in order, so a busy host only holds up its
+ * own requests. Hosts with a waiter that only lack a free slot in the
+ * total are taken in turn as slots come back.
+ */
+public class ConnectionLimiter {
+
+	private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+	// Instance variables **************
+	private final int PER_HOST;
+	private final int TOTAL;
+	private final Map<String, Host> HOSTS;
+	private final ArrayDeque<Host> READY;
+	private int active = 0;
+
+	/**
+	 * @param int perHost, requests allowed to one host at once
+	 * @param int total, requests allowed at once over all hosts
+	 */
+	public ConnectionLimiter(int perHost, int total){
+		PER_HOST = Math.max(perHost, 1);
+		TOTAL = Math.max(total, 1);
+		HOSTS = new HashMap<String, Host>();
+		READY = new ArrayDeque<Host>();
+	}
+
+	/**
+	 * Ask for a slot for host
+	 * @param String host
+	 * @return CompletableFuture completing once the caller holds a slot
+	 */
+	public synchronized CompletableFuture<Void> acquire(String host){
+		Host entry = HOSTS.get(host);
+		if(entry == null){
+			entry = new Host();
+			HOSTS.put(host, entry);
+		}
+		if(entry.active < PER_HOST && active < TOTAL && entry.waiting.isEmpty()){
+			entry.active++;
+			active++;
+			return GRANTED;
+		}
+		CompletableFuture<Void> slot = new CompletableFuture<Void>();
+		entry.waiting.add(slot);
+		// Only the total is full, take a turn once a slot comes back
+		if(entry.active < PER_HOST)
+			ready(entry);
+		return slot;
+	}
+
+	/**
+	 * Give back a slot for host, handing free slots to waiting hosts
+	 * @param String host
+	 */
+	public void release(String host){
+		ArrayList<CompletableFuture<Void>> granted = null;
+		synchronized(this){
+			Host entry = HOSTS.get(host);
+			entry.active--;
+			active--;
+			if(entry.waiting.isEmpty()){
+				if(entry.active == 0)
+					HOSTS.remove(host);
+			}
+			else
+				ready(entry);
+
+			while(active < TOTAL && !READY.isEmpty()){
+				Host next = READY.poll();
+				next.ready = false;
+				if(next.waiting.isEmpty() || next.active >= PER_HOST)
+					continue;
+				if(granted == null)
+					granted = new ArrayList<CompletableFuture<Void>>();
+				granted.add(next.waiting.poll());
+				next.active++;
+				active++;
+				// Back of the line, so hosts share what's left
+				if(!next.waiting.isEmpty() && next.active < PER_HOST)
+					ready(next);
+			}
+		}
+		// Complete outside the lock, the waiters' fetches start from here
+		if(granted != null){
+			for(CompletableFuture<Void> slot : granted)
+				slot.complete(null);
+		}
+	}
+
+	/**
+	 * Stop waiting for a slot from acquire()
+	 * @param String host
+	 * @param CompletableFuture slot, as returned by acquire()
+	 * @return true if slot was still waiting and is now dropped,
+	 * false if it was already granted and must be released
+	 */
+	public synchronized boolean cancel(String host, CompletableFuture<Void> slot){
+		Host entry = HOSTS.get(host);
+		if(entry == null || !entry.waiting.remove(slot))
+			return false;
+		if(entry.waiting.isEmpty() && entry.active == 0)
+			HOSTS.remove(host);
+		return true;
+	}
+
+	private void ready(Host entry){
+		if(!entry.ready){
+			entry.ready = true;
+			READY.add(entry);
+		}
+	}
+
+	private static class Host {
+		private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<CompletableFuture<Void>>();
+		private int active = 0;
+		private boolean ready = false;
+	}
+
+}//************** END ConnectionLimiter **************
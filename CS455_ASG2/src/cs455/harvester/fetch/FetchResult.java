@@ -0,0 +1,102 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of fetching one URL: the HTTP status, the headers, the
+ * URL the response actually came from after any redirects, and
+ * the body. Everything about a link is decided from this one
+ * response, it is never requested a second time.
+ */
+public class FetchResult {
+
+	// Instance variables **************
+	private final int status;
+	private final String url;
+	private final Map<String, List<String>> headers;
+	private final byte[] body;
+
+	public FetchResult(int status, String url, Map<String, List<String>> headers, byte[] body){
+		this.status = status;
+		this.url = url;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	/**
+	 * @param String name, case insensitive
+	 * @return the first value of header name, or null if not sent
+	 */
+	public String getHeader(String name) {
+		for(Map.Entry<String, List<String>> header : headers.entrySet()){
+			if(header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty())
+				return header.getValue().get(0);
+		}
+		return null;
+	}
+
+	/**
+	 * @return all response headers
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return the HTTP status code
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the final URL, after following any redirects
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the Content-Type header, or "" if none was sent
+	 */
+	public String getContentType() {
+		String contentType = getHeader("Content-Type");
+		return contentType == null ? "" : contentType;
+	}
+
+	/**
+	 * @return the response body, null if it wasn't downloaded
+	 * because it wasn't HTML or was too large
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return true if the body wasn't downloaded
+	 */
+	public boolean isSkipped() {
+		return body == null;
+	}
+
+	/**
+	 * @return true for 2xx responses
+	 */
+	public boolean isSuccess() {
+		return status >= 200 && status < 300;
+	}
+
+	@Override
+	public String toString() {
+		return "FetchResult [status=" + status + ", url=" + url + ", contentType=" + getContentType()
+				+ ", bytes=" + (body != null ? body.length : 0) + "]";
+	}
+
+}//************** END FetchResult **************
@@ -0,0 +1,211 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Body subscriber for gzip or deflate encoded responses. Each buffer
+ * is inflated as it arrives, so only the decoded page is ever held,
+ * and reading stops as soon as that passes the size limit, in which
+ * case the body completes as null, or as its first limit bytes if
+ * truncating. A "deflate" body may be zlib
+ * wrapped or raw, which one is told from its first two bytes.
+ */
+public class InflatingBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+	// gzip header flags
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	// Instance variables **************
+	private final boolean gzip;
+	private final long limit;
+	private final boolean truncate;
+	private final String host;
+	private final TransferStats stats;
+	private final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+	private Flow.Subscription subscription;
+	private Inflater inflater;
+	// Bytes held until the gzip header, or the deflate wrapper, can be read
+	private byte[] prefix = new byte[0];
+	private byte[] out = new byte[16384];
+	private int count;
+	private long wire;
+	private boolean done;
+
+	/**
+	 * @param boolean gzip, false for deflate
+	 * @param long limit, most decoded bytes to accept
+	 * @param boolean truncate, keep the first limit bytes of a longer body rather than none
+	 * @param String host, for the stats
+	 * @param TransferStats stats
+	 */
+	public InflatingBodySubscriber(boolean gzip, long limit, boolean truncate, String host, TransferStats stats){
+		this.gzip = gzip;
+		this.limit = limit;
+		this.truncate = truncate;
+		this.host = host;
+		this.stats = stats;
+	}
+
+	@Override
+	public CompletionStage<byte[]> getBody() {
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> items) {
+		if(done)
+			return;
+		try {
+			for(ByteBuffer buffer : items){
+				wire += buffer.remaining();
+				if(inflater == null)
+					start(buffer);
+				else
+					inflate(buffer);
+				if(done)
+					return;
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if(done)
+			return;
+		done = true;
+		if(inflater != null)
+			inflater.end();
+		stats.record(host, wire, count);
+		result.complete(Arrays.copyOf(out, count));
+	}
+
+	/**
+	 * Collect buffer into the prefix until the stream header is read,
+	 * then set up the inflater and feed it what follows
+	 */
+	private void start(ByteBuffer buffer) throws IOException {
+		int held = prefix.length;
+		prefix = Arrays.copyOf(prefix, held + buffer.remaining());
+		buffer.get(prefix, held, prefix.length - held);
+
+		int body;
+		if(gzip){
+			body = gzipHeaderLength(prefix);
+			if(body < 0)
+				return;
+			inflater = new Inflater(true);
+		} else {
+			if(prefix.length < 2)
+				return;
+			int header = ((prefix[0] & 0xFF) << 8) | (prefix[1] & 0xFF);
+			boolean zlib = (prefix[0] & 0x0F) == 8 && header % 31 == 0;
+			inflater = new Inflater(!zlib);
+			body = 0;
+		}
+		ByteBuffer rest = ByteBuffer.wrap(prefix, body, prefix.length - body);
+		prefix = null;
+		inflate(rest);
+	}
+
+	private void inflate(ByteBuffer buffer) throws IOException {
+		if(inflater.finished())
+			return;
+		inflater.setInput(buffer);
+		try {
+			while(!inflater.needsInput() && !inflater.finished()){
+				if(count == out.length)
+					out = Arrays.copyOf(out, out.length * 2);
+				int inflated = inflater.inflate(out, count, out.length - count);
+				count += inflated;
+				if(count > limit){
+					// Too big to be worth parsing, stop reading
+					done = true;
+					subscription.cancel();
+					inflater.end();
+					stats.record(host, wire, count);
+					result.complete(truncate ? Arrays.copyOf(out, (int) limit) : null);
+					return;
+				}
+				if(inflated == 0 && inflater.needsDictionary())
+					throw new IOException("Preset dictionary in " + host + " response");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed response from " + host);
+		}
+	}
+
+	private void fail(Throwable throwable){
+		if(done)
+			return;
+		done = true;
+		if(subscription != null)
+			subscription.cancel();
+		if(inflater != null)
+			inflater.end();
+		result.completeExceptionally(throwable);
+	}
+
+	/**
+	 * @param byte[] data, the start of a gzip stream
+	 * @return length of the gzip header, -1 if data doesn't hold all of it yet
+	 * @throws IOException if data isn't gzip
+	 */
+	private static int gzipHeaderLength(byte[] data) throws IOException {
+		if(data.length < 10)
+			return -1;
+		if((data[0] & 0xFF) != 0x1F || (data[1] & 0xFF) != 0x8B || data[2] != 8)
+			throw new IOException("Not in gzip format");
+		int flags = data[3] & 0xFF;
+		int position = 10;
+		if((flags & FEXTRA) != 0){
+			if(data.length < position + 2)
+				return -1;
+			position += 2 + ((data[position] & 0xFF) | ((data[position + 1] & 0xFF) << 8));
+		}
+		if((flags & FNAME) != 0){
+			while(position < data.length && data[position] != 0)
+				position++;
+			position++;
+		}
+		if((flags & FCOMMENT) != 0){
+			while(position < data.length && data[position] != 0)
+				position++;
+			position++;
+		}
+		if((flags & FHCRC) != 0)
+			position += 2;
+		return position <= data.length ? position : -1;
+	}
+
+}//************** END InflatingBodySubscriber **************
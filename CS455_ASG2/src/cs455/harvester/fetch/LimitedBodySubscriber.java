@@ -0,0 +1,107 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Body subscriber for identity encoded responses. The body is
+ * collected as it arrives and reading stops as soon as it passes
+ * the size limit, so a chunked response with no Content-Length can't
+ * grow without bound. The body then completes as null, or as its
+ * first limit bytes if truncating.
+ */
+public class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+	// Instance variables **************
+	private final long limit;
+	private final boolean truncate;
+	private final String host;
+	private final TransferStats stats;
+	private final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+	private Flow.Subscription subscription;
+	private byte[] out;
+	private int count;
+	private boolean done;
+
+	/**
+	 * @param long limit, most bytes to accept
+	 * @param boolean truncate, keep the first limit bytes of a longer body rather than none
+	 * @param long expected, Content-Length if sent, otherwise -1
+	 * @param String host, for the stats
+	 * @param TransferStats stats
+	 */
+	public LimitedBodySubscriber(long limit, boolean truncate, long expected, String host, TransferStats stats){
+		this.limit = limit;
+		this.truncate = truncate;
+		this.host = host;
+		this.stats = stats;
+		out = new byte[(int) Math.min(expected >= 0 ? expected : 16384, Math.min(limit, 1 << 20))];
+	}
+
+	@Override
+	public CompletionStage<byte[]> getBody() {
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> items) {
+		if(done)
+			return;
+		for(ByteBuffer buffer : items){
+			int length = buffer.remaining();
+			if(count + (long) length > limit){
+				// Too big to be worth parsing, stop reading
+				done = true;
+				subscription.cancel();
+				stats.record(host, count + (long) length, count + (long) length);
+				if(truncate){
+					out = Arrays.copyOf(out, (int) limit);
+					buffer.get(out, count, (int) limit - count);
+					result.complete(out);
+				} else {
+					result.complete(null);
+				}
+				return;
+			}
+			if(count + length > out.length)
+				out = Arrays.copyOf(out, (int) Math.min(Math.max(out.length * 2L, count + length), limit));
+			buffer.get(out, count, length);
+			count += length;
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		if(done)
+			return;
+		done = true;
+		result.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if(done)
+			return;
+		done = true;
+		stats.record(host, count, count);
+		result.complete(count == out.length ? out : Arrays.copyOf(out, count));
+	}
+
+}//************** END LimitedBodySubscriber **************
@@ -0,0 +1,428 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import cs455.harvester.util.Settings;
+
+/**
+ * Page fetcher built on java.net.http.HttpClient, the one place
+ * HTTP connections are made and managed.
+ * 
+ * Requests can be sent with sendAsync, so the number of fetches in
+ * flight is independent of the number of threads: the client runs
+ * on a small fixed pool of fetch.threads (default 4) threads, which
+ * also run the completion callbacks that extract links.
+ * 
+ * The client keeps a keep-alive pool of connections per host, idle
+ * connections are closed after fetch.idle.seconds (default 30). The
+ * ConnectionLimiter caps requests, and so sockets, at
+ * fetch.maxPerHost (default 8) per host and fetch.maxConnections
+ * (default 256) overall. Wanted bodies are always read in full, which
+ * is what returns a connection to the pool for reuse.
+ * 
+ * Headers are looked at before any body is read. Only successful
+ * HTML responses (or ones that don't say) of at most fetch.maxBytes
+ * are downloaded, anything else completes with a null body. With
+ * fetch.head=true, URLs that look like documents rather than pages
+ * are checked with a HEAD request first, and only fetched if HTML.
+ * Every request carries the agent setting (default cs455-harvester)
+ * as its User-Agent, the name robots.txt rules are matched against.
+ * 
+ * Unless fetch.compress=false, gzip and deflate are accepted and
+ * inflated as each buffer arrives. TransferStats keeps the bytes
+ * received and decoded per host.
+ * 
+ * With a ResponseStore in record mode every response is also written
+ * to the store, in replay mode fetches are answered from the store
+ * alone and never reach the network.
+ */
+public class PageFetcher {
+	// Singleton instance
+	private static PageFetcher instance = null;
+
+	// Instance variables **************
+	private final ExecutorService POOL;
+	private final HttpClient CLIENT;
+	private final ConnectionLimiter LIMITER;
+	private final Duration TIMEOUT;
+	private final String AGENT;
+	private final long MAX_BYTES;
+	private final boolean HEAD_FIRST;
+	private final boolean COMPRESS;
+	private final TransferStats STATS;
+	private final HttpResponse.BodyHandler<byte[]> HEAD_HANDLER;
+	private volatile ResponseStore store = null;
+	private volatile boolean replay = false;
+
+	// Exists only to defeat instantiation
+	protected PageFetcher() {
+		// Read once by the JDK when the first client is built
+		if(System.getProperty("jdk.httpclient.keepalive.timeout") == null)
+			System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(Settings.getInt("fetch.idle.seconds", 30)));
+
+		final AtomicInteger count = new AtomicInteger();
+		POOL = Executors.newFixedThreadPool(Settings.getInt("fetch.threads", 4), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PageFetcher-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CLIENT = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(Settings.getInt("fetch.connect.timeout", 10)))
+				.executor(POOL)
+				.build();
+		LIMITER = new ConnectionLimiter(Settings.getInt("fetch.maxPerHost", 8), Settings.getInt("fetch.maxConnections", 256));
+		TIMEOUT = Duration.ofSeconds(Settings.getInt("fetch.timeout", 30));
+		AGENT = Settings.getString("agent", "cs455-harvester");
+		MAX_BYTES = Settings.getLong("fetch.maxBytes", 10L << 20);
+		HEAD_FIRST = Settings.getBoolean("fetch.head", false);
+		COMPRESS = Settings.getBoolean("fetch.compress", true);
+		STATS = new TransferStats();
+		HEAD_HANDLER = new HttpResponse.BodyHandler<byte[]>() {
+			public HttpResponse.BodySubscriber<byte[]> apply(HttpResponse.ResponseInfo info) {
+				return new SkippingBodySubscriber(true);
+			}
+		};
+	}
+
+	/**
+	 * @param String host, the request's host
+	 * @return BodyHandler skipping bodies that aren't wanted HTML pages
+	 */
+	private HttpResponse.BodyHandler<byte[]> handler(final String host){
+		return new HttpResponse.BodyHandler<byte[]>() {
+			public HttpResponse.BodySubscriber<byte[]> apply(HttpResponse.ResponseInfo info) {
+				return pageSubscriber(info, host);
+			}
+		};
+	}
+
+	/**
+	 * @param String host, the request's host
+	 * @param long limit, bytes to keep of any longer body
+	 * @return BodyHandler reading the body whatever its type
+	 */
+	private HttpResponse.BodyHandler<byte[]> fileHandler(final String host, final long limit){
+		return new HttpResponse.BodyHandler<byte[]>() {
+			public HttpResponse.BodySubscriber<byte[]> apply(HttpResponse.ResponseInfo info) {
+				return bodySubscriber(info, host, limit, true);
+			}
+		};
+	}
+
+	/**
+	 * Decide from the status and headers alone whether to read the body
+	 * @param ResponseInfo info
+	 * @param String host
+	 * @return BodySubscriber
+	 */
+	private HttpResponse.BodySubscriber<byte[]> pageSubscriber(HttpResponse.ResponseInfo info, String host){
+		long length = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+		String type = info.headers().firstValue("Content-Type").orElse(null);
+		boolean wanted = info.statusCode() >= 200 && info.statusCode() < 300
+				&& isHtml(type) && length <= MAX_BYTES;
+		if(wanted)
+			return bodySubscriber(info, host, MAX_BYTES, false);
+		// Small bodies, e.g. error pages, are cheaper to drain than to lose the connection
+		return new SkippingBodySubscriber(length >= 0 && length <= 16384);
+	}
+
+	/**
+	 * Read the body, decoding it as it arrives if compressed,
+	 * up to limit bytes
+	 * @param ResponseInfo info
+	 * @param String host
+	 * @param long limit, most bytes to read
+	 * @param boolean truncate, keep the first limit bytes of a longer body rather than none
+	 * @return BodySubscriber
+	 */
+	private HttpResponse.BodySubscriber<byte[]> bodySubscriber(HttpResponse.ResponseInfo info, String host, long limit, boolean truncate){
+		String encoding = info.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase();
+		if(encoding.equals("gzip") || encoding.equals("x-gzip"))
+			return new InflatingBodySubscriber(true, limit, truncate, host, STATS);
+		if(encoding.equals("deflate"))
+			return new InflatingBodySubscriber(false, limit, truncate, host, STATS);
+		if(!encoding.equals("identity") && !encoding.isEmpty())
+			return new SkippingBodySubscriber(false);
+		return new LimitedBodySubscriber(limit, truncate, info.headers().firstValueAsLong("Content-Length").orElse(-1), host, STATS);
+	}
+
+	/**
+	 * @param String contentType, null if not sent
+	 * @return true if the body may contain HTML links
+	 */
+	private static boolean isHtml(String contentType){
+		if(contentType == null)
+			return true;
+		String type = contentType.trim().toLowerCase();
+		return type.isEmpty() || type.startsWith("text/html") || type.startsWith("application/xhtml");
+	}
+
+	/**
+	 * @param URI uri
+	 * @return true if the last path segment has an extension that isn't a web page
+	 */
+	private static boolean looksLikeDocument(URI uri){
+		String path = uri.getPath();
+		if(path == null)
+			return false;
+		int slash = path.lastIndexOf('/');
+		int dot = path.lastIndexOf('.');
+		if(dot <= slash)
+			return false;
+		String extension = path.substring(dot + 1).toLowerCase();
+		return !(extension.startsWith("htm") || extension.startsWith("php") || extension.startsWith("asp")
+				|| extension.equals("jsp") || extension.equals("shtml") || extension.equals("cfm"));
+	}
+
+	// Get instance of PageFetcher
+	public static synchronized PageFetcher getInstance() {
+		if (instance == null) {
+			instance = new PageFetcher();
+		}
+		return instance;
+	}
+
+	/**
+	 * Fetch url, blocking until the whole body has arrived
+	 * @param String url
+	 * @return FetchResult
+	 * @throws IOException if the URL is malformed or the request fails
+	 */
+	public FetchResult fetch(String url) throws IOException {
+		return fetch(url, null);
+	}
+
+	/**
+	 * Conditional form of fetch(String): with a validator from an
+	 * earlier crawl the server may answer 304 Not Modified
+	 * @param String url
+	 * @param Validator validator, null for a plain GET
+	 * @return FetchResult
+	 * @throws IOException if the URL is malformed or no connection could be made
+	 */
+	public FetchResult fetch(String url, Validator validator) throws IOException {
+		if(replay)
+			return store.replay(url);
+		HttpRequest request = buildRequest(url, validator);
+		String host = request.uri().getHost();
+		CompletableFuture<Void> slot = LIMITER.acquire(host);
+		try {
+			slot.get();
+		} catch (Exception e) {
+			// Don't leave the slot queued, or hold it if it came in meanwhile
+			if(!LIMITER.cancel(host, slot))
+				LIMITER.release(host);
+			if(e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a connection to " + host);
+		}
+		try {
+			if(HEAD_FIRST && looksLikeDocument(request.uri())){
+				HttpResponse<byte[]> head = CLIENT.send(headRequest(request), HEAD_HANDLER);
+				if(!isHtml(head.headers().firstValue("Content-Type").orElse(null)))
+					return recorded(url, toResult(head));
+			}
+			return recorded(url, toResult(CLIENT.send(request, handler(host))));
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted fetching " + url);
+		} finally {
+			LIMITER.release(host);
+		}
+	}
+
+	/**
+	 * Start fetching url, the returned future completes once
+	 * the whole body has arrived
+	 * @param String url
+	 * @return CompletableFuture<FetchResult>
+	 */
+	public CompletableFuture<FetchResult> fetchAsync(String url) {
+		return fetchAsync(url, null);
+	}
+
+	/**
+	 * Conditional form of fetchAsync(String)
+	 * @param String url
+	 * @param Validator validator, null for a plain GET
+	 * @return CompletableFuture of the response
+	 */
+	public CompletableFuture<FetchResult> fetchAsync(String url, Validator validator) {
+		if(replay)
+			return replayAsync(url);
+		final HttpRequest request;
+		try {
+			request = buildRequest(url, validator);
+		} catch (IOException e) {
+			CompletableFuture<FetchResult> failed = new CompletableFuture<FetchResult>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		final HttpResponse.BodyHandler<byte[]> pageHandler = handler(request.uri().getHost());
+		return limited(request.uri().getHost(), url, new Function<Void, CompletionStage<HttpResponse<byte[]>>>() {
+			public CompletionStage<HttpResponse<byte[]>> apply(Void granted) {
+				if(!(HEAD_FIRST && looksLikeDocument(request.uri())))
+					return CLIENT.sendAsync(request, pageHandler);
+				return CLIENT.sendAsync(headRequest(request), HEAD_HANDLER)
+						.thenCompose(new Function<HttpResponse<byte[]>, CompletionStage<HttpResponse<byte[]>>>() {
+							public CompletionStage<HttpResponse<byte[]>> apply(HttpResponse<byte[]> head) {
+								if(!isHtml(head.headers().firstValue("Content-Type").orElse(null)))
+									return CompletableFuture.completedFuture(head);
+								return CLIENT.sendAsync(request, pageHandler);
+							}
+						});
+			}
+		});
+	}
+
+	/**
+	 * Fetch url without blocking, reading the body whatever its type,
+	 * e.g. for robots.txt. Reading stops after maxBytes of the body
+	 * @param String url
+	 * @param final long maxBytes, most bytes of the body to keep
+	 * @return CompletableFuture of the response, failed with an
+	 * IOException if the URL is malformed or no connection could be made
+	 */
+	public CompletableFuture<FetchResult> fetchFileAsync(String url, final long maxBytes) {
+		if(replay)
+			return replayAsync(url);
+		final HttpRequest request;
+		try {
+			request = buildRequest(url, null);
+		} catch (IOException e) {
+			CompletableFuture<FetchResult> failed = new CompletableFuture<FetchResult>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return limited(request.uri().getHost(), url, new Function<Void, CompletionStage<HttpResponse<byte[]>>>() {
+			public CompletionStage<HttpResponse<byte[]>> apply(Void granted) {
+				return CLIENT.sendAsync(request, fileHandler(request.uri().getHost(), maxBytes));
+			}
+		});
+	}
+
+	/**
+	 * @return bytes received and decoded per host
+	 */
+	public TransferStats getStats() {
+		return STATS;
+	}
+
+	/**
+	 * @return the User-Agent product token sent with every request
+	 */
+	public String getAgent() {
+		return AGENT;
+	}
+
+	/**
+	 * Record responses to store, or with replay set answer fetches from it
+	 * @param ResponseStore store, null to go back to plain fetching
+	 * @param boolean replay
+	 */
+	public void setStore(ResponseStore store, boolean replay) {
+		this.store = store;
+		this.replay = store != null && replay;
+	}
+
+	/**
+	 * Run send once a connection to host is free, giving it back when done
+	 * @param String host
+	 * @param final String url, as requested
+	 * @param Function send
+	 * @return CompletableFuture of the response
+	 */
+	private CompletableFuture<FetchResult> limited(final String host, final String url, Function<Void, CompletionStage<HttpResponse<byte[]>>> send){
+		return LIMITER.acquire(host)
+				.thenCompose(send)
+				.whenComplete(new BiConsumer<HttpResponse<byte[]>, Throwable>() {
+					public void accept(HttpResponse<byte[]> response, Throwable error) {
+						LIMITER.release(host);
+					}
+				})
+				.thenApply(new Function<HttpResponse<byte[]>, FetchResult>() {
+					public FetchResult apply(HttpResponse<byte[]> response) {
+						return recorded(url, toResult(response));
+					}
+				});
+	}
+
+	/**
+	 * Read url from the store on the fetch threads, as a real response would arrive
+	 * @param final String url
+	 * @return CompletableFuture of the recorded response, failed if there is none
+	 */
+	private CompletableFuture<FetchResult> replayAsync(final String url){
+		final ResponseStore replaying = store;
+		return CompletableFuture.supplyAsync(new Supplier<FetchResult>() {
+			public FetchResult get() {
+				try {
+					return replaying.replay(url);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, POOL);
+	}
+
+	private FetchResult recorded(String url, FetchResult result){
+		ResponseStore recording = store;
+		if(recording != null)
+			recording.record(url, result);
+		return result;
+	}
+
+	private HttpRequest buildRequest(String url, Validator validator) throws IOException {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT)
+					.header("User-Agent", AGENT);
+			if(COMPRESS)
+				builder.header("Accept-Encoding", "gzip, deflate");
+			if(validator != null && validator.getEtag() != null)
+				builder.header("If-None-Match", validator.getEtag());
+			if(validator != null && validator.getLastModified() != null)
+				builder.header("If-Modified-Since", validator.getLastModified());
+			HttpRequest request = builder.GET().build();
+			if(request.uri().getHost() == null)
+				throw new IOException("No host in URL " + url);
+			return request;
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Malformed URL " + url);
+		}
+	}
+
+	private HttpRequest headRequest(HttpRequest request){
+		return HttpRequest.newBuilder(request.uri()).timeout(TIMEOUT).header("User-Agent", AGENT)
+				.method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+	}
+
+	private FetchResult toResult(HttpResponse<byte[]> response){
+		return new FetchResult(response.statusCode(), response.uri().toString(),
+				response.headers().map(), response.body());
+	}
+
+}//************** END PageFetcher **************
@@ -0,0 +1,258 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cs455.harvester.util.Hashing;
+
+/**
+ * Responses recorded to disk so a crawl can be replayed without
+ * the network, e.g. to rerun the graph and output stages or to
+ * benchmark the pipeline at disk speed.
+ * 
+ * Bodies are content addressed: each distinct body, by a 128-bit
+ * hash and its length, is appended once to the current segment file,
+ * a new segment being started every segmentBytes. The index is an
+ * append-only log of one record per URL (status, final URL, the
+ * Content-Type, ETag and Last-Modified headers, and where the body
+ * is), flushed as written. A later record for a URL replaces any
+ * earlier one. Bodies are read back with positional reads, which
+ * any number of threads can do at once.
+ */
+public class ResponseStore {
+
+	// Headers kept with each response
+	private static final String[] HEADERS = { "Content-Type", "ETag", "Last-Modified" };
+
+	// Instance variables **************
+	private final File DIRECTORY;
+	private final long SEGMENT_BYTES;
+	private final ConcurrentMap<String, Entry> INDEX;
+	private final ConcurrentMap<String, Entry> CONTENT;
+	private final List<FileChannel> SEGMENTS;
+	private final DataOutputStream INDEX_LOG;
+	private FileChannel current;
+
+	private static final class Entry {
+		final int status;
+		final String url;
+		final Map<String, List<String>> headers;
+		final long hash1;
+		final long hash2;
+		final int segment;
+		final long offset;
+		final int length;
+
+		Entry(int status, String url, Map<String, List<String>> headers, long hash1, long hash2, int segment, long offset, int length){
+			this.status = status;
+			this.url = url;
+			this.headers = headers;
+			this.hash1 = hash1;
+			this.hash2 = hash2;
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		String contentKey(){
+			return String.format("%016x%016x:%d", hash1, hash2, length);
+		}
+	}
+
+	/**
+	 * @param File directory, created if missing
+	 * @param long segmentBytes, size at which a new segment is started
+	 * @throws IOException if the store can't be read or written
+	 */
+	public ResponseStore(File directory, long segmentBytes) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory);
+		DIRECTORY = directory;
+		SEGMENT_BYTES = segmentBytes;
+		INDEX = new ConcurrentHashMap<String, Entry>();
+		CONTENT = new ConcurrentHashMap<String, Entry>();
+		SEGMENTS = Collections.synchronizedList(new ArrayList<FileChannel>());
+
+		File segment;
+		while((segment = segmentFile(SEGMENTS.size())).exists())
+			SEGMENTS.add(new RandomAccessFile(segment, "rw").getChannel());
+		if(SEGMENTS.isEmpty())
+			SEGMENTS.add(new RandomAccessFile(segmentFile(0), "rw").getChannel());
+		current = SEGMENTS.get(SEGMENTS.size() - 1);
+		current.position(current.size());
+
+		File index = new File(directory, "index");
+		if(index.exists())
+			readIndex(index);
+		INDEX_LOG = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)));
+	}
+
+	/**
+	 * Record the response fetched for url
+	 * @param String url, as requested
+	 * @param FetchResult result
+	 */
+	public void record(String url, FetchResult result){
+		Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		for(String name : HEADERS){
+			String value = result.getHeader(name);
+			if(value != null)
+				headers.put(name, Collections.singletonList(value));
+		}
+		byte[] body = result.getBody();
+		// Hashed before taking the lock, so fetches only queue on the write
+		long hash1 = body == null ? 0 : Hashing.hash64(body, 0);
+		long hash2 = body == null ? 0 : Hashing.hash64(body, 1);
+		String key = body == null ? null : new Entry(0, null, null, hash1, hash2, 0, 0, body.length).contentKey();
+		try {
+			synchronized(this){
+				Entry entry;
+				if(body == null){
+					entry = new Entry(result.getStatus(), result.getUrl(), headers, 0, 0, -1, -1, -1);
+				} else {
+					Entry stored = CONTENT.get(key);
+					if(stored == null)
+						stored = append(body, hash1, hash2);
+					entry = new Entry(result.getStatus(), result.getUrl(), headers, stored.hash1, stored.hash2,
+							stored.segment, stored.offset, stored.length);
+				}
+				writeIndex(url, entry);
+				INDEX.put(url, entry);
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to record response for " + url + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param String url, as requested
+	 * @return the response recorded for url
+	 * @throws IOException if url wasn't recorded or its body can't be read
+	 */
+	public FetchResult replay(String url) throws IOException {
+		Entry entry = INDEX.get(url);
+		if(entry == null)
+			throw new IOException("No recorded response for " + url);
+		byte[] body = null;
+		if(entry.length >= 0){
+			body = new byte[entry.length];
+			ByteBuffer buffer = ByteBuffer.wrap(body);
+			FileChannel segment = SEGMENTS.get(entry.segment);
+			while(buffer.hasRemaining()){
+				if(segment.read(buffer, entry.offset + buffer.position()) < 0)
+					throw new IOException("Recorded body for " + url + " is cut short");
+			}
+		}
+		return new FetchResult(entry.status, entry.url, entry.headers, body);
+	}
+
+	/**
+	 * @return number of URLs recorded
+	 */
+	public int size(){
+		return INDEX.size();
+	}
+
+	/**
+	 * Close the index and segments
+	 */
+	public synchronized void close(){
+		try {
+			INDEX_LOG.close();
+			for(FileChannel segment : SEGMENTS)
+				segment.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Append body to the current segment, starting a new one if full
+	 * @param byte[] body
+	 * @param long hash1, Hashing.hash64(body, 0)
+	 * @param long hash2, Hashing.hash64(body, 1)
+	 * @return Entry giving where it went
+	 */
+	private Entry append(byte[] body, long hash1, long hash2) throws IOException {
+		if(current.position() > 0 && current.position() + body.length > SEGMENT_BYTES){
+			current = new RandomAccessFile(segmentFile(SEGMENTS.size()), "rw").getChannel();
+			SEGMENTS.add(current);
+		}
+		long offset = current.position();
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		while(buffer.hasRemaining())
+			current.write(buffer);
+		Entry stored = new Entry(0, null, null, hash1, hash2, SEGMENTS.size() - 1, offset, body.length);
+		CONTENT.put(stored.contentKey(), stored);
+		return stored;
+	}
+
+	private void writeIndex(String url, Entry entry) throws IOException {
+		INDEX_LOG.writeUTF(url);
+		INDEX_LOG.writeInt(entry.status);
+		INDEX_LOG.writeUTF(entry.url);
+		INDEX_LOG.writeInt(entry.headers.size());
+		for(Map.Entry<String, List<String>> header : entry.headers.entrySet()){
+			INDEX_LOG.writeUTF(header.getKey());
+			INDEX_LOG.writeUTF(header.getValue().get(0));
+		}
+		INDEX_LOG.writeLong(entry.hash1);
+		INDEX_LOG.writeLong(entry.hash2);
+		INDEX_LOG.writeInt(entry.segment);
+		INDEX_LOG.writeLong(entry.offset);
+		INDEX_LOG.writeInt(entry.length);
+		INDEX_LOG.flush();
+	}
+
+	private void readIndex(File index) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+		try {
+			while(true){
+				String url = in.readUTF();
+				int status = in.readInt();
+				String finalUrl = in.readUTF();
+				Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+				for(int i = in.readInt(); i > 0; i--)
+					headers.put(in.readUTF(), Collections.singletonList(in.readUTF()));
+				Entry entry = new Entry(status, finalUrl, headers, in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readInt());
+				// Ignore anything pointing past what was written
+				if(entry.length >= 0 && (entry.segment >= SEGMENTS.size()
+						|| entry.offset + entry.length > SEGMENTS.get(entry.segment).size()))
+					continue;
+				INDEX.put(url, entry);
+				if(entry.length >= 0)
+					CONTENT.put(entry.contentKey(), entry);
+			}
+		} catch (EOFException e) {
+			// End of the index, or a record cut short
+		} finally {
+			in.close();
+		}
+	}
+
+	private File segmentFile(int number){
+		return new File(DIRECTORY, "segment-" + number);
+	}
+
+}//************** END ResponseStore **************
@@ -0,0 +1,160 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Fetches each site's robots.txt once, through the PageFetcher, and
+ * keeps the compiled rules for a time to live. Sites are keyed by
+ * scheme, host and port, as robots.txt is. A missing robots.txt (4xx)
+ * allows everything for the full time to live, a server error or no
+ * connection allows everything but is retried after the shorter error
+ * time to live. Only the first 500KB of a robots.txt is read.
+ */
+public class RobotsCache {
+
+	private static final int MAX_LENGTH = 500 * 1024;
+
+	// Instance variables **************
+	private final PageFetcher FETCHER;
+	private final long TTL;
+	private final long ERROR_TTL;
+	private final BiConsumer<String, RobotsRules> LISTENER;
+	private final ConcurrentMap<String, Entry> CACHE;
+
+	private static final class Entry {
+		final CompletableFuture<RobotsRules> rules;
+		final long expires;
+
+		Entry(CompletableFuture<RobotsRules> rules, long expires){
+			this.rules = rules;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * @param PageFetcher fetcher
+	 * @param long ttl, milliseconds to keep rules for
+	 * @param long errorTtl, milliseconds before retrying a site that couldn't be read
+	 * @param BiConsumer listener, told the site and rules of each robots.txt
+	 * loaded, may be null
+	 */
+	public RobotsCache(PageFetcher fetcher, long ttl, long errorTtl, BiConsumer<String, RobotsRules> listener){
+		FETCHER = fetcher;
+		TTL = TimeUnit.MILLISECONDS.toNanos(ttl);
+		ERROR_TTL = TimeUnit.MILLISECONDS.toNanos(errorTtl);
+		LISTENER = listener;
+		CACHE = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Rules for url's site, loading them if not cached or expired
+	 * @param String url, absolute
+	 * @return CompletableFuture of the rules, never failed
+	 */
+	public CompletableFuture<RobotsRules> rulesFor(String url){
+		String site = siteOf(url);
+		if(site == null)
+			return CompletableFuture.completedFuture(RobotsRules.ALLOW_ALL);
+		while(true){
+			Entry entry = CACHE.get(site);
+			if(entry != null && entry.expires - System.nanoTime() > 0)
+				return entry.rules;
+			// Expires only once loaded
+			Entry loading = new Entry(new CompletableFuture<RobotsRules>(), System.nanoTime() + Long.MAX_VALUE / 2);
+			boolean won = entry == null ? CACHE.putIfAbsent(site, loading) == null : CACHE.replace(site, entry, loading);
+			if(won){
+				load(site, loading);
+				return loading.rules;
+			}
+		}
+	}
+
+	/**
+	 * Rules for url's site if already loaded, without waiting. Starts
+	 * loading them if not.
+	 * @param String url, absolute
+	 * @return RobotsRules, null if not known yet
+	 */
+	public RobotsRules peek(String url){
+		return rulesFor(url).getNow(null);
+	}
+
+	/**
+	 * @param String url, absolute
+	 * @return true if url's site allows it, once its rules are loaded
+	 */
+	public CompletableFuture<Boolean> isAllowed(final String url){
+		return rulesFor(url).thenApply(new Function<RobotsRules, Boolean>() {
+			public Boolean apply(RobotsRules rules) {
+				return rules.isAllowed(pathOf(url));
+			}
+		});
+	}
+
+	private void load(final String site, final Entry loading){
+		FETCHER.fetchFileAsync(site + "/robots.txt", MAX_LENGTH).handle(new BiFunction<FetchResult, Throwable, Void>() {
+			public Void apply(FetchResult result, Throwable error) {
+				RobotsRules rules = RobotsRules.ALLOW_ALL;
+				long ttl = TTL;
+				if(result != null && result.isSuccess() && result.getBody() != null){
+					byte[] body = result.getBody();
+					String text = new String(body, 0, Math.min(body.length, MAX_LENGTH), StandardCharsets.UTF_8);
+					rules = RobotsRules.parse(text, FETCHER.getAgent());
+				} else if(result == null || result.getStatus() >= 500){
+					ttl = ERROR_TTL;
+				}
+				CACHE.replace(site, loading, new Entry(loading.rules, System.nanoTime() + ttl));
+				loading.rules.complete(rules);
+				if(LISTENER != null)
+					LISTENER.accept(site, rules);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @param String url, absolute
+	 * @return scheme://authority of url, null if it has none
+	 */
+	public static String siteOf(String url){
+		int scheme = url.indexOf("://");
+		if(scheme < 0)
+			return null;
+		int end = scheme + 3;
+		while(end < url.length() && url.charAt(end) != '/' && url.charAt(end) != '?' && url.charAt(end) != '#')
+			end++;
+		return url.substring(0, end);
+	}
+
+	/**
+	 * @param String url, absolute
+	 * @return the path and query of url, "/" if empty
+	 */
+	public static String pathOf(String url){
+		int scheme = url.indexOf("://");
+		int start = scheme < 0 ? 0 : scheme + 3;
+		while(start < url.length() && url.charAt(start) != '/' && url.charAt(start) != '?' && url.charAt(start) != '#')
+			start++;
+		int end = url.indexOf('#', start);
+		if(end < 0)
+			end = url.length();
+		if(start == end)
+			return "/";
+		String path = url.substring(start, end);
+		return path.charAt(0) == '/' ? path : "/" + path;
+	}
+
+}//************** END RobotsCache **************
@@ -0,0 +1,190 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The Allow/Disallow rules and Crawl-delay a host's robots.txt gives
+ * one user agent. Rules are kept longest pattern first, so the first
+ * match is the most specific one, with Allow winning a tie. Patterns
+ * may use '*' for any run of characters and a trailing '$' to anchor
+ * at the end, patterns without either are plain prefix checks.
+ */
+public class RobotsRules {
+
+	// Rules for a host with no usable robots.txt
+	public static final RobotsRules ALLOW_ALL = new RobotsRules(new ArrayList<Rule>(), -1);
+
+	// Instance variables **************
+	private final Rule[] RULES;
+	private final long CRAWL_DELAY;
+
+	private static final class Rule {
+		final String pattern;
+		final boolean allow;
+		final boolean literal;
+
+		Rule(String pattern, boolean allow){
+			this.pattern = pattern;
+			this.allow = allow;
+			this.literal = pattern.indexOf('*') < 0 && !pattern.endsWith("$");
+		}
+	}
+
+	private RobotsRules(List<Rule> rules, long crawlDelay){
+		Collections.sort(rules, new Comparator<Rule>() {
+			public int compare(Rule a, Rule b) {
+				if(a.pattern.length() != b.pattern.length())
+					return b.pattern.length() - a.pattern.length();
+				return a.allow == b.allow ? 0 : a.allow ? -1 : 1;
+			}
+		});
+		RULES = rules.toArray(new Rule[rules.size()]);
+		CRAWL_DELAY = crawlDelay;
+	}
+
+	/**
+	 * Pick out the group for agent from a robots.txt: the one naming the
+	 * longest token found in agent, otherwise the '*' group
+	 * @param String text, the robots.txt body
+	 * @param String agent, our User-Agent
+	 * @return RobotsRules
+	 */
+	public static RobotsRules parse(String text, String agent){
+		String userAgent = agent.toLowerCase();
+		List<Rule> best = new ArrayList<Rule>();
+		List<Rule> wildcard = new ArrayList<Rule>();
+		long bestDelay = -1;
+		long wildcardDelay = -1;
+		int bestMatch = 0;
+		boolean wildcardSeen = false;
+
+		// State of the group being read
+		List<String> agents = new ArrayList<String>();
+		List<Rule> rules = new ArrayList<Rule>();
+		long delay = -1;
+		boolean inRules = false;
+
+		String[] lines = text.split("\r\n|\r|\n");
+		for(int i = 0; i <= lines.length; i++){
+			String key = null;
+			String value = null;
+			if(i < lines.length){
+				String line = lines[i];
+				int comment = line.indexOf('#');
+				if(comment >= 0)
+					line = line.substring(0, comment);
+				int colon = line.indexOf(':');
+				if(colon < 0)
+					continue;
+				key = line.substring(0, colon).trim().toLowerCase();
+				value = line.substring(colon + 1).trim();
+			}
+			// A user-agent line after some rules, or the end, closes the group
+			if(i == lines.length || (key.equals("user-agent") && inRules)){
+				for(String name : agents){
+					if(name.equals("*")){
+						wildcardSeen = true;
+						wildcard.addAll(rules);
+						wildcardDelay = Math.max(wildcardDelay, delay);
+					} else if(name.length() >= bestMatch && userAgent.contains(name)){
+						if(name.length() > bestMatch){
+							best.clear();
+							bestDelay = -1;
+						}
+						bestMatch = name.length();
+						best.addAll(rules);
+						bestDelay = Math.max(bestDelay, delay);
+					}
+				}
+				agents.clear();
+				rules = new ArrayList<Rule>();
+				delay = -1;
+				inRules = false;
+				if(i == lines.length)
+					break;
+			}
+			if(key.equals("user-agent")){
+				if(!value.isEmpty())
+					agents.add(value.toLowerCase());
+			} else if(key.equals("allow") || key.equals("disallow")){
+				inRules = true;
+				// An empty Disallow allows everything, same as no rule
+				if(!value.isEmpty())
+					rules.add(new Rule(value, key.equals("allow")));
+			} else if(key.equals("crawl-delay")){
+				inRules = true;
+				try {
+					delay = (long) (Double.parseDouble(value) * 1000);
+				} catch (NumberFormatException e) {}
+			}
+		}
+		if(bestMatch > 0)
+			return new RobotsRules(best, bestDelay);
+		if(wildcardSeen)
+			return new RobotsRules(wildcard, wildcardDelay);
+		return ALLOW_ALL;
+	}
+
+	/**
+	 * @param String path, the path and query of a URL, starting with '/'
+	 * @return true if path may be crawled
+	 */
+	public boolean isAllowed(String path){
+		for(Rule rule : RULES){
+			if(rule.literal ? path.startsWith(rule.pattern) : matches(rule.pattern, path))
+				return rule.allow;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Crawl-delay in milliseconds, -1 if none was given
+	 */
+	public long getCrawlDelay(){
+		return CRAWL_DELAY;
+	}
+
+	/**
+	 * Match path against a pattern with '*' and a trailing '$',
+	 * backtracking only to the last '*' seen
+	 */
+	private static boolean matches(String pattern, String path){
+		int end = pattern.length();
+		boolean anchored = pattern.endsWith("$");
+		if(anchored)
+			end--;
+		int p = 0;
+		int s = 0;
+		int star = -1;
+		int resume = 0;
+		while(true){
+			if(p == end){
+				if(!anchored || s == path.length())
+					return true;
+			} else if(pattern.charAt(p) == '*'){
+				star = ++p;
+				resume = s;
+				continue;
+			} else if(s < path.length() && pattern.charAt(p) == path.charAt(s)){
+				p++;
+				s++;
+				continue;
+			}
+			// Mismatch, let the last '*' swallow one more character
+			if(star < 0 || resume >= path.length())
+				return false;
+			p = star;
+			s = ++resume;
+		}
+	}
+
+}//************** END RobotsRules **************
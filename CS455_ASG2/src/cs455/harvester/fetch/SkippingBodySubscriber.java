@@ -0,0 +1,66 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Body subscriber for responses whose body isn't wanted, it
+ * completes with a null body. It either drains the body so the
+ * connection can go back to the keep-alive pool, which is cheap for
+ * small bodies, or cancels straight away so nothing more is read and
+ * the connection is closed, for large or unknown length bodies.
+ */
+public class SkippingBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+	// Instance variables **************
+	private final boolean drain;
+	private final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+
+	/**
+	 * @param boolean drain, read and discard the body rather than cancel
+	 */
+	public SkippingBodySubscriber(boolean drain){
+		this.drain = drain;
+	}
+
+	@Override
+	public CompletionStage<byte[]> getBody() {
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if(drain){
+			subscription.request(Long.MAX_VALUE);
+		} else {
+			subscription.cancel();
+			result.complete(null);
+		}
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> item) {
+		// Discarded
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		result.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		result.complete(null);
+	}
+
+}//************** END SkippingBodySubscriber **************
@@ -0,0 +1,60 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per host count of body bytes as received and as decoded, showing
+ * what compressed transfer saves
+ */
+public class TransferStats {
+
+	private static final int WIRE = 0;
+	private static final int DECODED = 1;
+
+	// Instance variables **************
+	private final ConcurrentMap<String, AtomicLongArray> HOSTS = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	/**
+	 * @param String host
+	 * @param long wire, body bytes received
+	 * @param long decoded, body bytes after decompression
+	 */
+	public void record(String host, long wire, long decoded){
+		AtomicLongArray counts = HOSTS.get(host);
+		if(counts == null){
+			AtomicLongArray created = new AtomicLongArray(2);
+			counts = HOSTS.putIfAbsent(host, created);
+			if(counts == null)
+				counts = created;
+		}
+		counts.addAndGet(WIRE, wire);
+		counts.addAndGet(DECODED, decoded);
+	}
+
+	/**
+	 * @return one line per host: bytes received, bytes decoded and the saving
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for(Map.Entry<String, AtomicLongArray> entry : new TreeMap<String, AtomicLongArray>(HOSTS).entrySet()){
+			long wire = entry.getValue().get(WIRE);
+			long decoded = entry.getValue().get(DECODED);
+			long saved = decoded == 0 ? 0 : 100 * (decoded - wire) / decoded;
+			report.append(entry.getKey()).append(' ').append(wire).append(" / ").append(decoded)
+					.append(" bytes (").append(saved).append("% saved)\n");
+		}
+		return report.toString();
+	}
+
+}//************** END TransferStats **************
@@ -0,0 +1,83 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+/**
+ * What an earlier crawl learned about a page: the validators to send
+ * in a conditional GET, a hash and SimHash of its body, and the links
+ * found in it, so an unchanged page needn't be downloaded or parsed again
+ */
+public class Validator {
+
+	// Instance variables **************
+	private final String ETAG;
+	private final String LAST_MODIFIED;
+	private final long CONTENT_HASH;
+	private final long FINGERPRINT;
+	private final String BASE_URL;
+	private final String[] LINKS;
+
+	/**
+	 * @param String etag, null if none
+	 * @param String lastModified, null if none
+	 * @param long contentHash
+	 * @param long fingerprint, SimHash of the body, SimHash.NONE if not taken
+	 * @param String baseUrl, the URL the page was served from, links are relative to it
+	 * @param String[] links, every href in the page in document order
+	 */
+	public Validator(String etag, String lastModified, long contentHash, long fingerprint, String baseUrl, String[] links){
+		ETAG = etag;
+		LAST_MODIFIED = lastModified;
+		CONTENT_HASH = contentHash;
+		FINGERPRINT = fingerprint;
+		BASE_URL = baseUrl;
+		LINKS = links;
+	}
+
+	/**
+	 * @return the ETag, null if none
+	 */
+	public String getEtag() {
+		return ETAG;
+	}
+
+	/**
+	 * @return the Last-Modified date, null if none
+	 */
+	public String getLastModified() {
+		return LAST_MODIFIED;
+	}
+
+	/**
+	 * @return hash of the page body
+	 */
+	public long getContentHash() {
+		return CONTENT_HASH;
+	}
+
+	/**
+	 * @return SimHash of the page body, SimHash.NONE if not taken
+	 */
+	public long getFingerprint() {
+		return FINGERPRINT;
+	}
+
+	/**
+	 * @return the URL the page was served from
+	 */
+	public String getBaseUrl() {
+		return BASE_URL;
+	}
+
+	/**
+	 * @return the hrefs found in the page
+	 */
+	public String[] getLinks() {
+		return LINKS;
+	}
+
+}//************** END Validator **************
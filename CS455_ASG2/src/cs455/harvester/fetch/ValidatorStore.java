@@ -0,0 +1,165 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Validators per URL kept between runs, for incremental crawls.
+ * 
+ * Held in memory and backed by an append-only log in directory:
+ * each record is written and flushed as it is put, so nothing is
+ * lost if the Crawler is stopped, and a later record for a URL
+ * replaces any earlier one. On opening, the log is read and written
+ * back compacted, which also drops a record cut short by a crash.
+ * Logs written before SimHash fingerprints were kept have no header
+ * and are read with none.
+ */
+public class ValidatorStore {
+
+	// Longest string writeUTF is sure to take
+	private static final int MAX_STRING = 16384;
+	/*
+	 * Starts a log with fingerprints. An older log starts with a URL's
+	 * length, which put() keeps under MAX_STRING, so can't look like this
+	 */
+	private static final int MAGIC = 0x56414C32;
+
+	// Instance variables **************
+	private final ConcurrentMap<String, Validator> VALIDATORS;
+	private final DataOutputStream LOG;
+
+	/**
+	 * @param File directory, created if missing
+	 * @throws IOException if the log can't be read or written
+	 */
+	public ValidatorStore(File directory) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory);
+		VALIDATORS = new ConcurrentHashMap<String, Validator>();
+		File log = new File(directory, "validators");
+		if(log.exists())
+			read(log);
+
+		File compacted = new File(directory, "validators.tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)));
+		try {
+			out.writeInt(MAGIC);
+			for(Map.Entry<String, Validator> entry : VALIDATORS.entrySet())
+				write(out, entry.getKey(), entry.getValue());
+		} finally {
+			out.close();
+		}
+		if(!compacted.renameTo(log))
+			throw new IOException("Unable to replace " + log);
+		LOG = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(log, true)));
+	}
+
+	/**
+	 * @param String url
+	 * @return Validator from the last crawl of url, null if none
+	 */
+	public Validator get(String url){
+		return VALIDATORS.get(url);
+	}
+
+	/**
+	 * Record validator for url, replacing any earlier one
+	 * @param String url
+	 * @param Validator validator
+	 */
+	public void put(String url, Validator validator){
+		if(url.length() > MAX_STRING || validator.getBaseUrl().length() > MAX_STRING)
+			return;
+		VALIDATORS.put(url, validator);
+		synchronized(LOG){
+			try {
+				write(LOG, url, validator);
+				LOG.flush();
+			} catch (IOException e) {
+				System.err.println("Unable to record validator for " + url + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return number of URLs with validators
+	 */
+	public int size(){
+		return VALIDATORS.size();
+	}
+
+	/**
+	 * Close the log
+	 */
+	public void close(){
+		synchronized(LOG){
+			try {
+				LOG.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private void read(File log) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+		try {
+			in.mark(4);
+			boolean fingerprints = in.readInt() == MAGIC;
+			if(!fingerprints)
+				in.reset();
+			while(true){
+				String url = in.readUTF();
+				String etag = in.readUTF();
+				String lastModified = in.readUTF();
+				long hash = in.readLong();
+				long fingerprint = fingerprints ? in.readLong() : 0;
+				String base = in.readUTF();
+				String[] links = new String[in.readInt()];
+				for(int i = 0; i < links.length; i++)
+					links[i] = in.readUTF();
+				VALIDATORS.put(url, new Validator(etag.isEmpty() ? null : etag,
+						lastModified.isEmpty() ? null : lastModified, hash, fingerprint, base, links));
+			}
+		} catch (EOFException e) {
+			// End of the log, or a record cut short
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(DataOutputStream out, String url, Validator validator) throws IOException {
+		out.writeUTF(url);
+		out.writeUTF(validator.getEtag() == null ? "" : validator.getEtag());
+		out.writeUTF(validator.getLastModified() == null ? "" : validator.getLastModified());
+		out.writeLong(validator.getContentHash());
+		out.writeLong(validator.getFingerprint());
+		out.writeUTF(validator.getBaseUrl());
+		String[] links = validator.getLinks();
+		int count = 0;
+		for(String link : links){
+			if(link.length() <= MAX_STRING)
+				count++;
+		}
+		out.writeInt(count);
+		for(String link : links){
+			if(link.length() <= MAX_STRING)
+				out.writeUTF(link);
+		}
+	}
+
+}//************** END ValidatorStore **************
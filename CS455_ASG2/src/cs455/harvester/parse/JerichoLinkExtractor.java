@@ -0,0 +1,45 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import net.htmlparser.jericho.Config;
+import net.htmlparser.jericho.Element;
+import net.htmlparser.jericho.HTMLElementName;
+import net.htmlparser.jericho.LoggerProvider;
+import net.htmlparser.jericho.Source;
+
+/**
+ * The original extractor: parses the whole page into a
+ * Jericho Source and walks its 'a' elements
+ */
+public class JerichoLinkExtractor extends LinkExtractor {
+
+	static {
+		Config.LoggerProvider = LoggerProvider.DISABLED;
+	}
+
+	@Override
+	public void extract(byte[] page, LinkListener listener) throws IOException {
+		Source source = new Source(new ByteArrayInputStream(page));
+		// get all 'a' tags
+		List<Element> aTags = source.getAllElements(HTMLElementName.A);
+
+		// get the URL ("href" attribute) in each 'a' tag
+		for (Element aTag : aTags) {
+			if (aTag != null){
+				String pageLink = aTag.getAttributeValue("href");
+				if(pageLink != null)
+					listener.onLink(pageLink);
+			}
+		}
+	}
+
+}//************** END JerichoLinkExtractor **************
@@ -0,0 +1,39 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.parse;
+
+import java.io.IOException;
+
+/**
+ * Finds the href of every anchor tag in a page. Implementations
+ * must be safe to share between threads.
+ */
+public abstract class LinkExtractor {
+
+	/**
+	 * Pass the href of each 'a' tag in page, in document order, to
+	 * listener. Anchors without an href are skipped.
+	 * @param byte[] page, the raw page body
+	 * @param LinkListener listener
+	 * @throws IOException if the page can't be read
+	 */
+	public abstract void extract(byte[] page, LinkListener listener) throws IOException;
+
+	/**
+	 * Look up an extractor by name: "stream" or "jericho"
+	 * @param String name
+	 * @return LinkExtractor, StreamingLinkExtractor if name is not recognized
+	 */
+	public static LinkExtractor forName(String name){
+		if(name.equals("jericho"))
+			return new JerichoLinkExtractor();
+		if(!name.equals("stream"))
+			System.out.println("Unknown link extractor \"" + name + "\", using stream");
+		return new StreamingLinkExtractor();
+	}
+
+}//************** END LinkExtractor **************
@@ -0,0 +1,13 @@
+package cs455.harvester.parse;
+
+/**
+ * Receives the links found by a LinkExtractor as it scans a page
+ */
+public interface LinkListener {
+
+	/**
+	 * @param String href, the decoded value of an anchor's href attribute
+	 */
+	public void onLink(String href);
+
+}
@@ -0,0 +1,176 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.parse;
+
+import cs455.harvester.util.Hashing;
+
+/**
+ * 64-bit SimHash of the visible text of a page, so that copies of
+ * the same content served under other URLs (print views, mirrors,
+ * session variants) can be recognised even when a date, counter or
+ * link differs. Pages that are close in content have fingerprints a
+ * small Hamming distance apart.
+ * 
+ * Markup, comments, and script and style elements are skipped. The
+ * features are pairs of consecutive words, case folded, each
+ * hashed and voted into the 64 bits. Like StreamingLinkExtractor this
+ * is a single pass over the page bytes, no text is copied out.
+ */
+public final class SimHash {
+
+	// Fingerprint of pages with too little text to compare
+	public static final long NONE = 0L;
+	// Fewest words a page needs to be fingerprinted
+	private static final int MIN_WORDS = 8;
+
+	// Exists only to defeat instantiation
+	private SimHash() {
+	}
+
+	/**
+	 * @param byte[] page
+	 * @return SimHash of the page text, NONE if it has fewer than MIN_WORDS words
+	 */
+	public static long fingerprint(byte[] page){
+		int[] votes = new int[64];
+		int length = page.length;
+		int words = 0;
+		long previous = 0;
+		long word = 0;
+		boolean inWord = false;
+		int i = 0;
+		while(i <= length){
+			byte b = i < length ? page[i] : (byte) ' ';
+			if(isWordChar(b)){
+				if(!inWord){
+					word = 0xcbf29ce484222325L;
+					inWord = true;
+				}
+				word ^= (b >= 'A' && b <= 'Z') ? b | 0x20 : b & 0xFF;
+				word *= 0x100000001b3L;
+				i++;
+				continue;
+			}
+			if(inWord){
+				inWord = false;
+				if(++words > 1)
+					vote(votes, Hashing.mix(previous * 31 + word));
+				previous = word;
+			}
+			if(b == '<' && i + 1 < length)
+				i = skipMarkup(page, i + 1);
+			else if(b == '&')
+				i = skipEntity(page, i + 1);
+			else
+				i++;
+		}
+		if(words < MIN_WORDS)
+			return NONE;
+		long hash = 0;
+		for(int bit = 0; bit < 64; bit++){
+			if(votes[bit] > 0)
+				hash |= 1L << bit;
+		}
+		return hash == NONE ? 1L : hash;
+	}
+
+	/**
+	 * @param long a
+	 * @param long b
+	 * @return number of bits a and b differ in
+	 */
+	public static int distance(long a, long b){
+		return Long.bitCount(a ^ b);
+	}
+
+	private static void vote(int[] votes, long feature){
+		for(int bit = 0; bit < 64; bit++)
+			votes[bit] += ((feature >>> bit) & 1) == 0 ? -1 : 1;
+	}
+
+	/**
+	 * Step over a tag, comment or declaration, and the body of a
+	 * script or style element
+	 * @param int i, just past the '<'
+	 * @return int index just past the markup
+	 */
+	private static int skipMarkup(byte[] page, int i){
+		if(startsWith(page, i, "!--"))
+			return skipPast(page, i + 3, "-->");
+		boolean script = startsWithIgnoreCase(page, i, "script") && !isWordChar(at(page, i + 6));
+		boolean style = startsWithIgnoreCase(page, i, "style") && !isWordChar(at(page, i + 5));
+		i = skipPast(page, i, ">");
+		if(script)
+			return skipPast(page, indexOfIgnoreCase(page, i, "</script"), ">");
+		if(style)
+			return skipPast(page, indexOfIgnoreCase(page, i, "</style"), ">");
+		return i;
+	}
+
+	/**
+	 * @param int i, just past the '&'
+	 * @return int index just past a short entity, or i if it isn't one
+	 */
+	private static int skipEntity(byte[] page, int i){
+		int end = Math.min(page.length, i + 10);
+		for(int j = i; j < end; j++){
+			if(page[j] == ';')
+				return j + 1;
+			if(!isWordChar(page[j]) && page[j] != '#')
+				break;
+		}
+		return i;
+	}
+
+	private static boolean isWordChar(byte b){
+		// Bytes of multi-byte UTF-8 characters count as letters
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b < 0;
+	}
+
+	private static byte at(byte[] page, int i){
+		return i < page.length ? page[i] : (byte) ' ';
+	}
+
+	private static int skipPast(byte[] page, int i, String end){
+		int length = page.length;
+		for(; i <= length - end.length(); i++){
+			if(startsWith(page, i, end))
+				return i + end.length();
+		}
+		return length;
+	}
+
+	private static int indexOfIgnoreCase(byte[] page, int i, String s){
+		int length = page.length;
+		for(; i <= length - s.length(); i++){
+			if(startsWithIgnoreCase(page, i, s))
+				return i;
+		}
+		return length;
+	}
+
+	private static boolean startsWith(byte[] page, int i, String s){
+		if(i + s.length() > page.length)
+			return false;
+		for(int j = 0; j < s.length(); j++){
+			if(page[i + j] != s.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean startsWithIgnoreCase(byte[] page, int i, String s){
+		if(i + s.length() > page.length)
+			return false;
+		for(int j = 0; j < s.length(); j++){
+			if((page[i + j] | 0x20) != s.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+}//************** END SimHash **************
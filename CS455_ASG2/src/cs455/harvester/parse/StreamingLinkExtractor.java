@@ -0,0 +1,290 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.parse;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single pass href scanner working directly on the page bytes.
+ * No document tree is built: tags are tokenized as they are met,
+ * attributes of everything but 'a' tags are stepped over, and each
+ * href is decoded into a per thread buffer and handed to the listener
+ * straight away. Comments, declarations and the contents of script
+ * and style elements are skipped, so unlike Jericho markup inside a
+ * script string isn't taken for a link. Non-ASCII hrefs are decoded
+ * as UTF-8.
+ */
+public class StreamingLinkExtractor extends LinkExtractor {
+
+	// Per thread scratch space for href values, grown as needed
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[256];
+		}
+	};
+
+	@Override
+	public void extract(byte[] page, LinkListener listener) {
+		int length = page.length;
+		int i = 0;
+		while((i = indexOf(page, (byte) '<', i, length)) >= 0 && ++i < length){
+			byte b = page[i];
+			if(b == '!'){
+				// Comment, doctype or CDATA
+				i = startsWith(page, i, "!--") ? skipPast(page, i + 3, "-->") : skipPast(page, i, ">");
+				continue;
+			}
+			if(b == '/' || b == '?'){
+				i = skipPast(page, i, ">");
+				continue;
+			}
+			// A '<' in text that doesn't start a tag
+			if(!isLetter(b))
+				continue;
+
+			int nameStart = i;
+			while(i < length && isNameChar(page[i]))
+				i++;
+			int nameLength = i - nameStart;
+			boolean anchor = nameLength == 1 && (page[nameStart] | 0x20) == 'a';
+			i = scanAttributes(page, i, anchor, listener);
+
+			if(nameLength == 6 && startsWithIgnoreCase(page, nameStart, "script"))
+				i = skipRawText(page, i, "script");
+			else if(nameLength == 5 && startsWithIgnoreCase(page, nameStart, "style"))
+				i = skipRawText(page, i, "style");
+		}
+	}
+
+	/**
+	 * Step over a tag's attributes, passing the first href on if
+	 * this is an anchor
+	 * @return int index just past the closing '>'
+	 */
+	private int scanAttributes(byte[] page, int i, boolean anchor, LinkListener listener){
+		int length = page.length;
+		boolean found = false;
+		while(i < length){
+			byte b = page[i];
+			if(b == '>')
+				return i + 1;
+			if(isSpace(b) || b == '/'){
+				i++;
+				continue;
+			}
+			int nameStart = i++;
+			while(i < length && !isSpace(page[i]) && page[i] != '=' && page[i] != '>' && page[i] != '/')
+				i++;
+			int nameEnd = i;
+			i = skipSpace(page, i);
+			if(i >= length || page[i] != '=')
+				continue;
+			i = skipSpace(page, i + 1);
+			if(i >= length)
+				break;
+
+			int valueStart;
+			int valueEnd;
+			byte quote = page[i];
+			if(quote == '"' || quote == '\''){
+				valueStart = ++i;
+				i = indexOf(page, quote, i, length);
+				if(i < 0)
+					i = length;
+				valueEnd = i++;
+			} else {
+				valueStart = i;
+				while(i < length && !isSpace(page[i]) && page[i] != '>')
+					i++;
+				valueEnd = i;
+			}
+			if(anchor && !found && nameEnd - nameStart == 4 && startsWithIgnoreCase(page, nameStart, "href")){
+				found = true;
+				listener.onLink(decode(page, valueStart, valueEnd));
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Skip the contents of a script or style element
+	 * @return int index of the '<' of its end tag, or page.length
+	 */
+	private static int skipRawText(byte[] page, int i, String name){
+		int length = page.length;
+		while((i = indexOf(page, (byte) '<', i, length)) >= 0){
+			if(i + 1 < length && page[i + 1] == '/' && startsWithIgnoreCase(page, i + 2, name))
+				return i;
+			i++;
+		}
+		return length;
+	}
+
+	/**
+	 * Decode page[start, end) into a String, resolving character references
+	 * @return String
+	 */
+	private static String decode(byte[] page, int start, int end){
+		int length = end - start;
+		char[] buffer = BUFFER.get();
+		if(buffer.length < length){
+			buffer = new char[Math.max(length, buffer.length * 2)];
+			BUFFER.set(buffer);
+		}
+		int count = 0;
+		boolean reference = false;
+		for(int i = start; i < end; i++){
+			byte b = page[i];
+			if(b < 0){
+				// Not plain ASCII, take the slow road
+				String value = new String(page, start, length, StandardCharsets.UTF_8);
+				count = value.length();
+				if(buffer.length < count){
+					buffer = new char[count];
+					BUFFER.set(buffer);
+				}
+				value.getChars(0, count, buffer, 0);
+				reference = value.indexOf('&') >= 0;
+				break;
+			}
+			reference |= b == '&';
+			buffer[count++] = (char) b;
+		}
+		if(reference)
+			count = decodeReferences(buffer, count);
+		return new String(buffer, 0, count);
+	}
+
+	/**
+	 * Replace character references in buffer[0, count) in place, the
+	 * result is never longer than the input
+	 * @return int new count
+	 */
+	private static int decodeReferences(char[] buffer, int count){
+		int write = 0;
+		int read = 0;
+		while(read < count){
+			char c = buffer[read];
+			int semicolon = read + 1;
+			while(c == '&' && semicolon < count && semicolon - read <= 10 && buffer[semicolon] != ';')
+				semicolon++;
+			int codePoint = c == '&' && semicolon < count && buffer[semicolon] == ';'
+					? reference(buffer, read + 1, semicolon) : -1;
+			if(codePoint < 0){
+				buffer[write++] = c;
+				read++;
+			} else {
+				write += Character.toChars(codePoint, buffer, write);
+				read = semicolon + 1;
+			}
+		}
+		return write;
+	}
+
+	/**
+	 * @return the code point named by buffer[start, end), -1 if unknown
+	 */
+	private static int reference(char[] buffer, int start, int end){
+		if(start < end && buffer[start] == '#'){
+			int radix = 10;
+			int i = start + 1;
+			if(i < end && (buffer[i] | 0x20) == 'x'){
+				radix = 16;
+				i++;
+			}
+			if(i == end)
+				return -1;
+			int codePoint = 0;
+			for(; i < end; i++){
+				int digit = Character.digit(buffer[i], radix);
+				if(digit < 0 || codePoint > 0x10FFFF)
+					return -1;
+				codePoint = codePoint * radix + digit;
+			}
+			return codePoint > 0 && codePoint <= 0x10FFFF ? codePoint : -1;
+		}
+		String name = new String(buffer, start, end - start);
+		if(name.equals("amp"))
+			return '&';
+		if(name.equals("quot"))
+			return '"';
+		if(name.equals("apos"))
+			return '\'';
+		if(name.equals("lt"))
+			return '<';
+		if(name.equals("gt"))
+			return '>';
+		if(name.equals("nbsp"))
+			return 0xA0;
+		return -1;
+	}
+
+	private static int indexOf(byte[] page, byte b, int from, int to){
+		for(int i = from; i < to; i++){
+			if(page[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return int index just past the next occurrence of end, or page.length
+	 */
+	private static int skipPast(byte[] page, int i, String end){
+		int length = page.length;
+		byte first = (byte) end.charAt(0);
+		while((i = indexOf(page, first, i, length)) >= 0){
+			if(startsWith(page, i, end))
+				return i + end.length();
+			i++;
+		}
+		return length;
+	}
+
+	private static int skipSpace(byte[] page, int i){
+		while(i < page.length && isSpace(page[i]))
+			i++;
+		return i;
+	}
+
+	private static boolean startsWith(byte[] page, int i, String s){
+		if(i + s.length() > page.length)
+			return false;
+		for(int j = 0; j < s.length(); j++){
+			if(page[i + j] != s.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param String lower, a lower case ASCII string
+	 */
+	private static boolean startsWithIgnoreCase(byte[] page, int i, String lower){
+		if(i + lower.length() > page.length)
+			return false;
+		for(int j = 0; j < lower.length(); j++){
+			if((page[i + j] | 0x20) != lower.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSpace(byte b){
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	private static boolean isLetter(byte b){
+		int lower = b | 0x20;
+		return lower >= 'a' && lower <= 'z';
+	}
+
+	private static boolean isNameChar(byte b){
+		return isLetter(b) || (b >= '0' && b <= '9') || b == '-' || b == '_' || b == ':';
+	}
+
+}//************** END StreamingLinkExtractor **************
@@ -7,19 +7,23 @@
 package cs455.harvester.task;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-import net.htmlparser.jericho.Config;
-import net.htmlparser.jericho.Element;
-import net.htmlparser.jericho.HTMLElementName;
-import net.htmlparser.jericho.LoggerProvider;
-import net.htmlparser.jericho.Source;
+import cs455.harvester.fetch.FetchResult;
+import cs455.harvester.fetch.PageFetcher;
+import cs455.harvester.fetch.Validator;
+import cs455.harvester.fetch.ValidatorStore;
+import cs455.harvester.parse.LinkExtractor;
+import cs455.harvester.parse.LinkListener;
 import cs455.harvester.thread.CrawlerThreadPool;
+import cs455.harvester.util.Hashing;
+import cs455.harvester.util.Settings;
+import cs455.harvester.util.UrlCanonicalizer;
+import cs455.harvester.util.UrlResolver;
 
 public class CrawlerTask implements Task {
 
@@ -27,17 +31,51 @@ public class CrawlerTask implements Task {
 	private final int RECURSION_DEPTH;
 	private final String PARENT_URL;
 	private final String CRAWL_URL;
+	private final String HOST;
 	private final String ROOT_URL;
 	private final String ORIGINATOR;
 	private final CrawlerThreadPool CRAWLER_POOL;
+	// Absolute URL before canonicalization, null if it didn't change
+	private final String RAW_URL;
+
+	// Shared by every task, "stream" or "jericho"
+	private static final LinkExtractor EXTRACTOR = LinkExtractor.forName(Settings.getString("extractor", "stream"));
+	private static final UrlCanonicalizer CANONICALIZER = new UrlCanonicalizer();
 
 	public CrawlerTask(int recursionDepth, String crawlUrl, String parentUrl, String rootUrl, CrawlerThreadPool crawlerPool, String originator){
+		String absolute = relativeToAbs(parentUrl, crawlUrl);
 		RECURSION_DEPTH = recursionDepth;
-		CRAWL_URL = relativeToAbs(parentUrl, crawlUrl);
+		CRAWL_URL = CANONICALIZER.canonicalize(absolute);
+		HOST = hostOf(CRAWL_URL);
 		PARENT_URL = normalize(parentUrl);
 		ROOT_URL = rootUrl;
 		ORIGINATOR = originator;
 		CRAWLER_POOL = crawlerPool;
+		RAW_URL = CRAWL_URL != absolute ? absolute : null;
+	}
+
+	/**
+	 * Constructor for a task whose URLs are already absolute and
+	 * normalized, skips resolving them again
+	 */
+	private CrawlerTask(int recursionDepth, String crawlUrl, String parentUrl, String rootUrl, String originator, CrawlerThreadPool crawlerPool){
+		RECURSION_DEPTH = recursionDepth;
+		CRAWL_URL = crawlUrl;
+		HOST = hostOf(CRAWL_URL);
+		PARENT_URL = parentUrl;
+		ROOT_URL = rootUrl;
+		ORIGINATOR = originator;
+		CRAWLER_POOL = crawlerPool;
+		RAW_URL = null;
+	}
+
+	/**
+	 * Rebuild a task from the values of an earlier one's getters,
+	 * e.g. when reading back a task spilled to disk
+	 * @return CrawlerTask
+	 */
+	public static CrawlerTask restore(int recursionDepth, String crawlUrl, String parentUrl, String rootUrl, CrawlerThreadPool crawlerPool, String originator){
+		return new CrawlerTask(recursionDepth, crawlUrl, parentUrl, rootUrl, originator, crawlerPool);
 	}
 
 	@Override
@@ -50,64 +88,204 @@ public class CrawlerTask implements Task {
 		}
 	}
 
-	public void URLExtractor(String url, int depth){
-		Config.LoggerProvider = LoggerProvider.DISABLED;
-		try {
-			// Web page that needs to be parsed,
-			final String pageUrl = url;
-			// Check for redirect before processing
-			HttpURLConnection con = (HttpURLConnection)(new URL(pageUrl).openConnection());
-			con.connect();
-			InputStream istream = con.getInputStream();
-			// this is the actual URL, the page is redirected to (if there is a redirect).
-			con.getURL();
-			// instead of passing the URL, pass the input stream.
-			Source source = new Source(istream);
-
-			// Don't parse if document, only if page			
-			if(!(pageUrl.endsWith(".pdf") || pageUrl.endsWith(".doc"))){
-				// get all 'a' tags
-				List<Element> aTags = source.getAllElements(HTMLElementName.A);
-
-				// get the URL ("href" attribute) in each 'a' tag
-				for (Element aTag : aTags) {
-					if (aTag != null){
-						String pageLink = aTag.getAttributeValue("href").toString();
-						if (pageLink.contains(ROOT_URL) || pageLink.charAt(0) == '/' || pageLink.charAt(0) == '.' || pageLink.charAt(0) == '#') {
-							CrawlerTask task = new CrawlerTask(depth, pageLink, pageUrl, ROOT_URL, CRAWLER_POOL, "internal");
-							CRAWLER_POOL.submit(task);
-						} else {
-							// Need to forward it on...
-							CRAWLER_POOL.forwardTask(pageLink, this);
-						}
-					}				
-				}
+	/**
+	 * Start the task without blocking: the page is fetched by the
+	 * PageFetcher and its links extracted once the body arrives
+	 * @return CompletableFuture completing when the task is done
+	 */
+	public CompletableFuture<Void> startAsync() {
+		// Check to make sure we haven't reached max depth
+		final int newDepth = RECURSION_DEPTH - 1;
+		if(newDepth <= 0 || CRAWL_URL == null)
+			return CompletableFuture.completedFuture(null);
+
+		final Validator validator = previousCrawl(CRAWL_URL);
+		return CRAWLER_POOL.robotsAllow(CRAWL_URL).thenCompose(new Function<Boolean, CompletableFuture<FetchResult>>() {
+			public CompletableFuture<FetchResult> apply(Boolean allowed) {
+				// Leave it if the site's robots.txt says to
+				if(!allowed)
+					return CompletableFuture.completedFuture(null);
+				return PageFetcher.getInstance().fetchAsync(CRAWL_URL, validator);
+			}
+		}).handle(new BiFunction<FetchResult, Throwable, Void>() {
+			public Void apply(FetchResult result, Throwable error) {
+				// No result means we couldn't connect at all or weren't allowed, nothing to report
+				if(result != null)
+					processResult(result, validator, newDepth);
+				return null;
 			}
+		});
+	}
 
+	public void URLExtractor(String url, int depth){
+		try {
+			// Leave it if the site's robots.txt says to
+			if(!CRAWLER_POOL.robotsAllow(url).join())
+				return;
+			// Fetch the whole page over a pooled connection, conditionally if crawled before
+			Validator validator = previousCrawl(url);
+			processResult(PageFetcher.getInstance().fetch(url, validator), validator, depth);
 		} catch (IOException e) {
 			/*
-			 * If here, could be malformed URL, or 404 or 500 error.
-			 * Need to check, and if 403, 404 or 500 add to broken-links
+			 * If here, malformed URL or no connection could be made,
+			 * there's no status to classify the link by
 			 */
-			try {
-				if(checkDeadLink(url)){
-					CRAWLER_POOL.reportBrokenLink(url);
+		}
+	}
+
+	/**
+	 * @param String url
+	 * @return what the last incremental crawl recorded for url, null if nothing
+	 */
+	private Validator previousCrawl(String url){
+		ValidatorStore validators = CRAWLER_POOL.getValidators();
+		return validators == null ? null : validators.get(url);
+	}
+
+	/**
+	 * Act on the single response fetched for CRAWL_URL: if 403, 404
+	 * or 500 add to broken-links, if 304 reuse the links found last
+	 * time, otherwise extract its links
+	 * @param FetchResult result
+	 * @param Validator previous, from the last crawl of CRAWL_URL, may be null
+	 * @param int depth for the new tasks
+	 */
+	private void processResult(FetchResult result, Validator previous, int depth){
+		if(result.getStatus() == 304 && previous != null){
+			// Unchanged since the last crawl, no download or parse needed
+			if(CRAWLER_POOL.isNearDuplicate(previous.getFingerprint()))
+				return;
+			LinkCollector links = new LinkCollector(previous.getBaseUrl(), false);
+			for(String link : previous.getLinks())
+				links.onLink(link);
+			links.admit(depth);
+			return;
+		}
+		if(!result.isSuccess()){
+			if(isDeadLink(result.getStatus()))
+				CRAWLER_POOL.reportBrokenLink(CRAWL_URL);
+			return;
+		}
+		// Not HTML, nothing to extract
+		if(result.isSkipped())
+			return;
+		try {
+			extractLinks(result, previous, depth);
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Forward every external link found in the page, and hand the
+	 * internal ones to the pool to admit as a batch, unless the page
+	 * is a near-duplicate of one already crawled. In an incremental
+	 * crawl the page's validators and links are recorded for next time
+	 * @param FetchResult result, a successful response for CRAWL_URL
+	 * @param Validator previous, from the last crawl of CRAWL_URL, may be null
+	 * @param int depth for the new tasks
+	 * @throws IOException if the page can't be parsed
+	 */
+	private void extractLinks(FetchResult result, Validator previous, int depth) throws IOException {
+		// Don't parse if document, only if page			
+		if(!(CRAWL_URL.endsWith(".pdf") || CRAWL_URL.endsWith(".doc"))){
+			ValidatorStore validators = CRAWLER_POOL.getValidators();
+			// Relative links resolve against where the page actually came from
+			LinkCollector links = new LinkCollector(result.getUrl(), validators != null);
+			byte[] page = result.getBody();
+			long hash = validators == null ? 0 : Hashing.hash64(page, 0);
+			long fingerprint = CRAWLER_POOL.fingerprint(page);
+			// Another URL for content already crawled, its links have been followed
+			if(CRAWLER_POOL.isNearDuplicate(fingerprint)){
+				// Still remembered with its links, in case the next crawl follows them
+				if(validators != null){
+					final List<String> hrefs = new ArrayList<String>();
+					EXTRACTOR.extract(page, new LinkListener() {
+						public void onLink(String href) {
+							if(!href.isEmpty())
+								hrefs.add(href);
+						}
+					});
+					validators.put(CRAWL_URL, new Validator(result.getHeader("ETag"), result.getHeader("Last-Modified"),
+							hash, fingerprint, result.getUrl(), hrefs.toArray(new String[hrefs.size()])));
 				}
-			} catch (IOException e1) {}
+				return;
+			}
+			if(previous != null && previous.getContentHash() == hash){
+				// Same bytes as last time, the links can't have changed
+				for(String link : previous.getLinks())
+					links.onLink(link);
+			} else {
+				EXTRACTOR.extract(page, links);
+			}
+			links.admit(depth);
+			if(validators != null)
+				validators.put(CRAWL_URL, new Validator(result.getHeader("ETag"), result.getHeader("Last-Modified"),
+						hash, fingerprint, result.getUrl(), links.getHrefs()));
 		}
 	}
 
 	/**
-	 * Determines if link is dead or not.
-	 * @param url
-	 * @return
-	 * @throws IOException
+	 * Sorts the links of one page as they are found: external ones are
+	 * forwarded straight away, internal ones resolved and canonicalized
+	 * to be admitted together
 	 */
-	private boolean checkDeadLink(String url) throws IOException {
-		HttpURLConnection con = (HttpURLConnection)(new URL(url).openConnection());
-		con.setInstanceFollowRedirects(false);
-		con.connect();
-		int responseCode = con.getResponseCode();
+	private class LinkCollector implements LinkListener {
+
+		// Instance variables **************
+		private final String baseUrl;
+		private final List<String> links = new ArrayList<String>();
+		// Each link's form before canonicalization, null where unchanged
+		private final List<String> rawUrls = new ArrayList<String>();
+		private final List<String> hrefs;
+
+		/**
+		 * @param String baseUrl, the URL relative links resolve against
+		 * @param boolean record, keep every href for getHrefs()
+		 */
+		LinkCollector(String baseUrl, boolean record){
+			this.baseUrl = baseUrl;
+			this.hrefs = record ? new ArrayList<String>() : null;
+		}
+
+		public void onLink(String pageLink) {
+			if (pageLink.isEmpty())
+				return;
+			if (hrefs != null)
+				hrefs.add(pageLink);
+			if (pageLink.contains(ROOT_URL) || pageLink.charAt(0) == '/' || pageLink.charAt(0) == '.' || pageLink.charAt(0) == '#') {
+				// Resolve and canonicalize without building a task yet
+				String absolute = UrlResolver.resolve(baseUrl, pageLink);
+				if (absolute == null)
+					return;
+				String link = CANONICALIZER.canonicalize(absolute);
+				rawUrls.add(link != absolute ? absolute : null);
+				links.add(link);
+			} else {
+				// Need to forward it on...
+				CRAWLER_POOL.forwardTask(pageLink, CrawlerTask.this);
+			}
+		}
+
+		/**
+		 * Hand the internal links to the pool
+		 * @param int depth for the new tasks
+		 */
+		void admit(int depth){
+			CRAWLER_POOL.admit(CrawlerTask.this, links, rawUrls, depth);
+		}
+
+		/**
+		 * @return every href seen, if recording
+		 */
+		String[] getHrefs(){
+			return hrefs.toArray(new String[hrefs.size()]);
+		}
+	}
+
+	/**
+	 * @param int responseCode
+	 * @return true if responseCode marks a broken link
+	 */
+	private static boolean isDeadLink(int responseCode) {
 		if(responseCode == 403)
 			return true;
 		if(responseCode == 404)
@@ -121,27 +299,46 @@ public class CrawlerTask implements Task {
 	 * Returns an absolute URL based on root and relative URL passed
 	 * @param String root
 	 * @param String relative
-	 * @return String absolute
+	 * @return String absolute, null if either is malformed
 	 */
 	private String relativeToAbs(String parent, String relative){
-		String absolute = null;
-		try {
-			if(!new URI(relative).isAbsolute()){
-				URI resolvedUrl = new URI(parent).resolve(relative);
-				absolute = resolvedUrl.toString();
-			} else {
-				absolute = relative;
-			}
-		} catch (URISyntaxException e1) {}
-		
-		return normalize(absolute);
+		return UrlResolver.resolve(parent, relative);
 	}
 
 	/**
 	 * @return the CRAWL_URL
 	 */
 	public String getCrawlUrl() {
-		return new String(CRAWL_URL);
+		return CRAWL_URL;
+	}
+
+	/**
+	 * @return true if canonicalization changed the URL this task was made with
+	 */
+	public boolean isRewritten() {
+		return RAW_URL != null;
+	}
+
+	/**
+	 * @return the URL this task was made with, before canonicalization
+	 * rewrote it, null if it didn't
+	 */
+	public String getRawUrl() {
+		return RAW_URL;
+	}
+
+	/**
+	 * @return the RECURSION_DEPTH remaining for this task
+	 */
+	public int getRecursionDepth() {
+		return RECURSION_DEPTH;
+	}
+
+	/**
+	 * @return the lower case host of CRAWL_URL, "" if it has none
+	 */
+	public String getHost() {
+		return HOST;
 	}
 
 	/**
@@ -166,78 +363,40 @@ public class CrawlerTask implements Task {
 	}
 
 	/**
-	 * Normalize URL
-	 * Licensed under http://www.apache.org/licenses/LICENSE-2.0
+	 * Returns the lower case host portion of an absolute URL,
+	 * without any port or user info
+	 * @param String url
+	 * @return String host, "" if none found
 	 */
-	public static String normalize(String normalized) {
-
-		if (normalized == null) {
-			return null;
-		}
-
-		// If the buffer begins with "./" or "../", the "." or ".." is removed.
-		if (normalized.startsWith("./")) {
-			normalized = normalized.substring(1);
-		} else if (normalized.startsWith("../")) {
-			normalized = normalized.substring(2);
-		} else if (normalized.startsWith("..")) {
-			normalized = normalized.substring(2);
-		}
-
-		// All occurrences of "/./" in the buffer are replaced with "/"
-		int index = -1;
-		while ((index = normalized.indexOf("/./")) != -1) {
-			normalized = normalized.substring(0, index) + normalized.substring(index + 2);
-		}
-
-		// If the buffer ends with "/.", the "." is removed.
-		if (normalized.endsWith("/.")) {
-			normalized = normalized.substring(0, normalized.length() - 1);
-		}
-
-		int startIndex = 0;
-
-		// All occurrences of "/<segment>/../" in the buffer, where ".."
-		// and <segment> are complete path segments, are iteratively replaced
-		// with "/" in order from left to right until no matching pattern remains.
-		// If the buffer ends with "/<segment>/..", that is also replaced
-		// with "/".  Note that <segment> may be empty.
-		while ((index = normalized.indexOf("/../", startIndex)) != -1) {
-			int slashIndex = normalized.lastIndexOf('/', index - 1);
-			if (slashIndex >= 0) {
-				normalized = normalized.substring(0, slashIndex) + normalized.substring(index + 3);
-			} else {
-				startIndex = index + 3;
-			}
-		}
-		if (normalized.endsWith("/..")) {
-			int slashIndex = normalized.lastIndexOf('/', normalized.length() - 4);
-			if (slashIndex >= 0) {
-				normalized = normalized.substring(0, slashIndex + 1);
-			}
-		}
-
-		// All prefixes of "<segment>/../" in the buffer, where ".."
-		// and <segment> are complete path segments, are iteratively replaced
-		// with "/" in order from left to right until no matching pattern remains.
-		// If the buffer ends with "<segment>/..", that is also replaced
-		// with "/".  Note that <segment> may be empty.
-		while ((index = normalized.indexOf("/../")) != -1) {
-			int slashIndex = normalized.lastIndexOf('/', index - 1);
-			if (slashIndex >= 0) {
+	public static String hostOf(String url){
+		if(url == null)
+			return "";
+		int start = url.indexOf("://");
+		if(start < 0)
+			return "";
+		start += 3;
+		int end = start;
+		while(end < url.length()){
+			char c = url.charAt(end);
+			if(c == '/' || c == '?' || c == '#')
 				break;
-			} else {
-				normalized = normalized.substring(index + 3);
-			}
-		}
-		if (normalized.endsWith("/..")) {
-			int slashIndex = normalized.lastIndexOf('/', normalized.length() - 4);
-			if (slashIndex < 0) {
-				normalized = "/";
-			}
+			if(c == '@')
+				start = end + 1;
+			end++;
 		}
+		int port = url.lastIndexOf(':', end - 1);
+		if(port >= start)
+			end = port;
+		return url.substring(start, end).toLowerCase();
+	}
 
-		return normalized;
+	/**
+	 * Normalize URL, removing any "." and ".." path segments
+	 * @param String url
+	 * @return String, null if url is null or malformed
+	 */
+	public static String normalize(String url) {
+		return UrlResolver.normalize(url);
 	}
 
 	@Override
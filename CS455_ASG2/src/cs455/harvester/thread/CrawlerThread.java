@@ -6,22 +6,27 @@
 
 package cs455.harvester.thread;
 
+import java.util.concurrent.ConcurrentLinkedDeque;
+
 import cs455.harvester.task.CrawlerTask;
 
 
 public class CrawlerThread extends Thread{
 
 	// Instance variables **************
-	private CrawlerThreadPool pool;
-	private boolean active = true;
+	private final CrawlerThreadPool pool;
+	// Tasks for links this thread found, other threads steal from it when idle
+	private final ConcurrentLinkedDeque<CrawlerTask> local;
+	private volatile boolean active = true;
 
 	public CrawlerThread(CrawlerThreadPool pool){
 		this.pool = pool;
+		this.local = new ConcurrentLinkedDeque<CrawlerTask>();
 	}
 
 	/**
 	 * Main run method for CralwerThread
-	 * Will continue to poll the queue for tasks
+	 * Will continue to ask the pool for tasks
 	 * once task received, will run, then return results to listener
 	 * and return itself to the pool for next task
 	 */
@@ -30,49 +35,55 @@ public class CrawlerThread extends Thread{
 		CrawlerTask task;
 
 		while(true) {
-			// Attempt to get a task from the queue
-			task = pool.removeFromQueue();
+			// Attempt to get a task, from our own deque, the pool, or another thread
+			task = pool.nextTask(this);
 			if(task != null) {
-				try {
-					// Notify ThreadPool we've started our task
-					pool.threadStartedTask();
-					
-					try {
-						task.start();
-					} finally {
-						// If link sent from other crawler, notify it we've finished
-						if (!(task.getOriginator().equals("internal")))
-							pool.sendComplete(task.getOriginator());
-					}
-					// Notify ThreadPool we've completed our task
-					pool.threadCompletedTask();
-					
-					// "Niceness", sleep for 1 second after each task completion
-					Thread.sleep(1000);
-					
-				} catch (Exception e) {
-					//System.err.println(e.getMessage());
-				}
+				pool.runTask(task);
 			} else {
 				if (!active)
 					// If no longer active, break out of while
 					break;
 				else{
-					// Else, queue was empty, wait until notified items have been added
-					// and try again
-					synchronized(pool.getWaitLock()) {
-						try {
-							pool.getWaitLock().wait();
-						} catch (InterruptedException e) {
-							//System.err.println(e.getMessage());
-						}
-					}
+					/*
+					 * Else, nothing ready. Park until a task is submitted,
+					 * or until the next host's politeness delay is up, and try again
+					 */
+					pool.awaitWork(this);
 				}
 			}
 		}//END while
 
 	}//END run
 
+	/**
+	 * @param CrawlerThreadPool
+	 * @return true if this thread works for pool
+	 */
+	boolean belongsTo(CrawlerThreadPool pool){
+		return this.pool == pool;
+	}
+
+	/**
+	 * Queue a task on this thread's own deque, only called by this thread
+	 * @param CrawlerTask
+	 */
+	void pushLocal(CrawlerTask task){
+		local.addLast(task);
+	}
+
+	/**
+	 * Take the oldest task from this thread's deque,
+	 * called by this thread and by threads stealing from it
+	 * @return CrawlerTask, or null if empty
+	 */
+	CrawlerTask pollLocal(){
+		return local.pollFirst();
+	}
+
+	boolean hasLocal(){
+		return !local.isEmpty();
+	}
+
 	/**
 	 * Tell thread to stop executing
 	 */
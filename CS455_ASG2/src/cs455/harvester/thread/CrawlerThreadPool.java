@@ -6,66 +6,270 @@
 
 package cs455.harvester.thread;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import cs455.harvester.Crawler;
+import cs455.harvester.fetch.PageFetcher;
+import cs455.harvester.fetch.ResponseStore;
+import cs455.harvester.fetch.RobotsCache;
+import cs455.harvester.fetch.RobotsRules;
+import cs455.harvester.fetch.ValidatorStore;
+import cs455.harvester.parse.SimHash;
 import cs455.harvester.task.CrawlerTask;
 import cs455.harvester.util.AdjacencyList;
+import cs455.harvester.util.BloomSeenUrlSet;
+import cs455.harvester.util.ConcurrentSeenUrlSet;
+import cs455.harvester.util.DiskSeenUrlSet;
+import cs455.harvester.util.Hashing;
+import cs455.harvester.util.NearDuplicateIndex;
+import cs455.harvester.util.SeenUrlSet;
+import cs455.harvester.util.Settings;
 
 
 public class CrawlerThreadPool{
 
 	// Instance variables **************
 	private volatile boolean shutDown;
-	private volatile boolean complete;
-	private volatile int tasksThreadsStarted = 0;
-	private volatile int tasksThreadsCompleted = 0;
-
-	private final LinkedList<CrawlerThread> THREADS;
-	private final LinkedList<CrawlerTask> TASKS;
+	private final AtomicInteger tasksThreadsStarted = new AtomicInteger();
+	private final AtomicInteger tasksThreadsCompleted = new AtomicInteger();
+	// Admitted tasks not yet finished, wherever they are queued
+	private final AtomicInteger pending = new AtomicInteger();
+	// Links only found to be duplicates once canonicalized
+	private final AtomicLong duplicatesPrevented = new AtomicLong();
+	// Hashes of the raw forms of rewritten links, so each is counted once
+	private final Set<Long> rawUrlsSeen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	// Links not crawled because robots.txt disallows them
+	private final AtomicLong robotsBlocked = new AtomicLong();
+	// Pages whose links weren't followed as they copy an earlier page
+	private final AtomicLong nearDuplicates = new AtomicLong();
+
+	private final CrawlerThread[] THREADS;
+	private final TaskDispatcher DISPATCHER;
+	private final ConcurrentLinkedQueue<Thread> IDLE;
+	private final PolitenessScheduler POLITENESS;
+	private final RobotsCache ROBOTS;
+	private final ValidatorStore VALIDATORS;
+	private final ResponseStore RESPONSES;
+	private final NearDuplicateIndex NEAR_DUPLICATES;
+	private final Frontier TASKS;
+	private final boolean LOCAL_QUEUES;
 	private final AdjacencyList ADJACENCY;
+	private final SeenUrlSet CRAWLED;
 	private final Crawler CRAWLER;
 	private final Object TASK_LOCK = new Object();
-	private final Object WAIT_LOCK = new Object();
 
-	private List<String> crawled = new ArrayList<String>();
 	private boolean debug = false;
 
 	/**
 	 * Main constructor for thread pool class
+	 * With cs455.harvester.pool.mode=virtual, size threads aren't
+	 * started, each task runs on its own virtual thread instead with
+	 * at most pool.inflight (default 1000) running at once.
+	 * With pool.mode=async, tasks are started with non-blocking
+	 * fetches under the same limit
 	 * @param size
 	 */
 	public CrawlerThreadPool(int size, Crawler crawler) {
 		// Crawler associated with this pool
 		CRAWLER = crawler;
-		// List of TASKS to be performed
-		TASKS = new LinkedList<CrawlerTask>();
-		// List of CRAWLER THREADS
-		THREADS = new LinkedList<CrawlerThread>();
+		String mode = Settings.getString("pool.mode", "threads");
+		boolean async = mode.equals("async");
+		boolean virtual = async || mode.equals("virtual");
+		// List of CRAWLER THREADS, and those currently parked waiting for work
+		THREADS = new CrawlerThread[virtual ? 0 : size];
+		IDLE = new ConcurrentLinkedQueue<Thread>();
 		// Create our ADJACENCY list to build out the graph
 		ADJACENCY = new AdjacencyList(CRAWLER.getRootUrl(), CRAWLER);
+		/*
+		 * Per host fetch timing. Default spacing matches the old one
+		 * second rest per thread when all threads share a host
+		 */
+		POLITENESS = new PolitenessScheduler(Settings.getLong("politeness.ms", 1000),
+				Settings.getInt("politeness.slots", size));
+		// Responses recorded for, or replayed from, disk
+		RESPONSES = createResponseStore();
+		// robots.txt rules per site
+		ROBOTS = createRobotsCache(Settings.getLong("politeness.ms", 1000) / Math.max(Settings.getInt("politeness.slots", size), 1));
+		// Frontier of TASKS to be performed
+		TASKS = createFrontier();
+		/*
+		 * Links found by a thread go on its own deque, unless a specific
+		 * frontier order or spilling was asked for, since the deques
+		 * are plain FIFOs held in memory
+		 */
+		LOCAL_QUEUES = !virtual && Settings.getBoolean("pool.stealing",
+				Settings.getString("frontier.order", "fifo").equals("fifo") && !Settings.getBoolean("frontier.spill", false));
+		// Store of every URL admitted, used to prevent duplicate crawling
+		CRAWLED = createSeenUrlSet();
+		// What earlier runs learned about each page, for incremental crawls
+		VALIDATORS = createValidatorStore();
+		// Fingerprints of recent pages, to spot copies served under other URLs
+		NEAR_DUPLICATES = Settings.getBoolean("dedup", false) ? new NearDuplicateIndex(
+				Settings.getInt("dedup.distance", 3), Settings.getInt("dedup.capacity", 100000)) : null;
 		// Volatile boolean for shut down
 		shutDown = false;
 
 		// Loop to start CRAWLER THREADS up
-		for(int i = 0; i<size; i++) {
-			CrawlerThread crawlThread = new CrawlerThread(this);
-			THREADS.add(crawlThread);
+		for(int i = 0; i<THREADS.length; i++) {
+			THREADS[i] = new CrawlerThread(this);
+		}
+		for(CrawlerThread crawlThread : THREADS) {
 			crawlThread.start();
 		}
+		// Or the dispatcher, in virtual thread mode
+		DISPATCHER = virtual ? new TaskDispatcher(this, Settings.getInt("pool.inflight", 1000), async) : null;
+		if(DISPATCHER != null)
+			DISPATCHER.start();
 
 	}//END CrawlerThreadPool
 
+	/**
+	 * Loads robots.txt for each site, unless cs455.harvester.robots=false,
+	 * keeping the rules for robots.ttl seconds (default a day). A
+	 * Crawl-delay is used for the host if longer than the default
+	 * spacing, so it only ever slows a host down
+	 * @param long defaultDelay, milliseconds between fetches to a host
+	 * @return RobotsCache, null if robots.txt is ignored
+	 */
+	private RobotsCache createRobotsCache(final long defaultDelay){
+		if(!Settings.getBoolean("robots", true))
+			return null;
+		return new RobotsCache(PageFetcher.getInstance(), Settings.getLong("robots.ttl", 86400) * 1000,
+				Settings.getLong("robots.errorTtl", 300) * 1000, new BiConsumer<String, RobotsRules>() {
+			public void accept(String site, RobotsRules rules) {
+				if(rules.getCrawlDelay() > defaultDelay)
+					POLITENESS.setHostDelay(CrawlerTask.hostOf(site), rules.getCrawlDelay());
+			}
+		});
+	}
+
+	/**
+	 * With cs455.harvester.store=record every response fetched is kept
+	 * in store.dir, in segments of store.segment.mb (default 64), and
+	 * with store=replay fetches are served from there instead of the
+	 * network. The default, off, leaves the fetcher alone
+	 * @return ResponseStore given to the fetcher, null if none
+	 */
+	private ResponseStore createResponseStore(){
+		String mode = Settings.getString("store", "off");
+		if(!mode.equals("record") && !mode.equals("replay"))
+			return null;
+		File directory = new File(Settings.getString("store.dir",
+				"/tmp/cs455-shaunpa-store/" + CRAWLER.getRootUrl().replaceAll("[^a-zA-Z0-9._-]", "-")));
+		try {
+			ResponseStore store = new ResponseStore(directory, Settings.getLong("store.segment.mb", 64) << 20);
+			PageFetcher.getInstance().setStore(store, mode.equals("replay"));
+			return store;
+		} catch (IOException e) {
+			System.err.println("Unable to open response store, fetching from the network: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * With cs455.harvester.incremental=true pages are fetched with
+	 * conditional GETs using validators kept in incremental.dir from
+	 * earlier runs, and unchanged pages reuse the links recorded then
+	 * @return ValidatorStore, null if not crawling incrementally
+	 */
+	private ValidatorStore createValidatorStore(){
+		if(!Settings.getBoolean("incremental", false))
+			return null;
+		File directory = new File(Settings.getString("incremental.dir",
+				"/tmp/cs455-shaunpa-validators/" + CRAWLER.getRootUrl().replaceAll("[^a-zA-Z0-9._-]", "-")));
+		try {
+			return new ValidatorStore(directory);
+		} catch (IOException e) {
+			System.err.println("Unable to open validator store, crawling in full: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return store of validators for an incremental crawl, null if not one
+	 */
+	public ValidatorStore getValidators() {
+		return VALIDATORS;
+	}
+
+	/**
+	 * Builds the frontier. Tasks are handed out per host no faster
+	 * than the politeness settings allow.
+	 * Which ready host goes next, and the order within a host, is set
+	 * by cs455.harvester.frontier.order.
+	 * With cs455.harvester.frontier.spill=true only frontier.hot tasks
+	 * are kept in memory and the rest go to disk
+	 * @return Frontier
+	 */
+	private Frontier createFrontier(){
+		Frontier frontier = new HostTaskQueue(POLITENESS,
+				TaskOrdering.forName(Settings.getString("frontier.order", "fifo"), ADJACENCY));
+		if(Settings.getBoolean("frontier.spill", false)){
+			File directory = new File(Settings.getString("frontier.dir",
+					"/tmp/cs455-shaunpa/" + CRAWLER.getRootUrl().replaceAll("[^a-zA-Z0-9._-]", "-") + "-frontier"));
+			// A segment is one mapping, which can't pass Integer.MAX_VALUE bytes
+			long segmentBytes = Math.min(Math.max(Settings.getLong("frontier.segment.mb", 64), 1), 2048) << 20;
+			try {
+				frontier = new SpillingFrontier(frontier, Settings.getInt("frontier.hot", 10000),
+						(int) Math.min(segmentBytes, Integer.MAX_VALUE), directory, this);
+			} catch (IOException e) {
+				System.err.println("Unable to create spilling frontier, keeping all tasks in memory: " + e.getMessage());
+			}
+		}
+		return frontier;
+	}
+
+	/**
+	 * Builds the seen-URL store selected by the cs455.harvester.seen property:
+	 * "hash" (default) exact in-heap set,
+	 * "bloom" fixed size off-heap Bloom filter, backed by an exact disk
+	 * store once near capacity unless cs455.harvester.seen.disk=false,
+	 * "disk" exact disk store only
+	 * @return SeenUrlSet
+	 */
+	private SeenUrlSet createSeenUrlSet(){
+		String type = Settings.getString("seen", "hash");
+		File directory = new File(Settings.getString("seen.dir",
+				"/tmp/cs455-shaunpa/" + CRAWLER.getRootUrl().replaceAll("[^a-zA-Z0-9._-]", "-") + "-seen"));
+		try {
+			if(type.equals("bloom")){
+				long capacity = Settings.getLong("seen.capacity", 10000000L);
+				SeenUrlSet exact = null;
+				if(Settings.getBoolean("seen.disk", true))
+					exact = new DiskSeenUrlSet(directory, capacity);
+				return new BloomSeenUrlSet(capacity, Settings.getDouble("seen.fpp", 0.01),
+						Settings.getDouble("seen.fallback", 0.9), exact);
+			}
+			if(type.equals("disk"))
+				return new DiskSeenUrlSet(directory, Settings.getLong("seen.capacity", 10000000L));
+		} catch (IOException e) {
+			System.err.println("Unable to create " + type + " seen-URL store, using hash: " + e.getMessage());
+		}
+		if(!type.equals("hash") && !type.equals("bloom") && !type.equals("disk"))
+			System.out.println("Unknown seen-URL store \"" + type + "\", using hash");
+		return new ConcurrentSeenUrlSet(Settings.getInt("seen.capacity", 1 << 16));
+	}
+
 	/**
 	 * Getters
 	 */
 	public int getThreadPoolSize() {
-		return THREADS.size();
-	}
-	public Object getWaitLock() {
-		return WAIT_LOCK;
+		return THREADS.length;
 	}
 
 	/**
@@ -77,41 +281,73 @@ public class CrawlerThreadPool{
 	}
 
 	/**
-	 * Tells whether this ThreadPool has finished all TASKS
+	 * Tells whether this ThreadPool has finished all TASKS,
+	 * i.e. nothing queued anywhere and nothing running
 	 * @return
 	 */
 	public boolean isComplete() {
-		return complete ? true : false;
+		return pending.get() == 0;
 	}
 
 	/**
-	 * Used to increment started task count
+	 * @return number of distinct URLs, as written before canonicalization,
+	 * that would each have been fetched once more without it
 	 */
-	public void threadStartedTask(){
-		tasksThreadsStarted++;
+	public long getDuplicatesPrevented() {
+		return duplicatesPrevented.get();
 	}
 
 	/**
-	 * Used to increment completed task count
+	 * @return number of links not crawled because robots.txt disallows them
 	 */
-	public void threadCompletedTask(){
-		tasksThreadsCompleted++;
+	public long getRobotsBlocked() {
+		return robotsBlocked.get();
 	}
 
 	/**
-	 * Used to set the completion status once
-	 * recursive depth has been reached
+	 * @return number of pages whose links weren't followed as near-duplicates
 	 */
-	public void taskComplete(){
-		complete = true;
+	public long getNearDuplicates() {
+		return nearDuplicates.get();
 	}
 
 	/**
-	 * If new task comes in, need to reset recursion
-	 * by marking task as incomplete
+	 * @param byte[] page
+	 * @return SimHash of page, SimHash.NONE if not checking for near-duplicates
 	 */
-	public void resetComplete(){
-		complete = false;
+	public long fingerprint(byte[] page) {
+		return NEAR_DUPLICATES == null ? SimHash.NONE : SimHash.fingerprint(page);
+	}
+
+	/**
+	 * With cs455.harvester.dedup=true, checks a page against the last
+	 * dedup.capacity (default 100000) pages fetched. A page whose
+	 * SimHash is within dedup.distance (default 3) bits of one of
+	 * them is a near-duplicate, and its links needn't be followed
+	 * since the earlier copy's were
+	 * @param long fingerprint, from fingerprint(byte[]) now or on an earlier crawl
+	 * @return true if the page is a near-duplicate of one already crawled
+	 */
+	public boolean isNearDuplicate(long fingerprint) {
+		if(NEAR_DUPLICATES == null || fingerprint == SimHash.NONE || !NEAR_DUPLICATES.addIfNew(fingerprint))
+			return false;
+		nearDuplicates.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Used to increment started task count
+	 */
+	public void threadStartedTask(){
+		tasksThreadsStarted.incrementAndGet();
+	}
+
+	/**
+	 * Used to increment completed task count
+	 */
+	public void threadCompletedTask(){
+		tasksThreadsCompleted.incrementAndGet();
+		pending.decrementAndGet();
 	}
 
 	/**
@@ -131,9 +367,7 @@ public class CrawlerThreadPool{
 		try{
 			CRAWLER.sendTaskToCrawler(forwards);
 		}finally{
-			synchronized(TASK_LOCK){
-				ADJACENCY.addEdge(task.getParentUrl(), forwards);
-			}
+			ADJACENCY.addEdge(task.getParentUrl(), forwards);
 		}
 	}
 
@@ -154,66 +388,288 @@ public class CrawlerThreadPool{
 	}
 
 	/**
-	 * Remove item from head of LinkedList for processing
-	 * Check if queue is empty, if yes set
-	 * ThreadPool to complete
-	 * @return CrawlTask
+	 * Run one task, keeping the completion accounting and
+	 * any reply to an originating Crawler correct whatever happens
+	 * @param CrawlerTask
 	 */
-	public CrawlerTask removeFromQueue() {
-		synchronized(TASK_LOCK){
-			CrawlerTask task = TASKS.poll();
-
-			if(debug && task != null)
-				System.out.println("Starting crawl of task: " + task);
+	void runTask(CrawlerTask task) {
+		try {
+			// Notify ThreadPool we've started our task
+			threadStartedTask();
+
+			try {
+				task.start();
+			} finally {
+				// If link sent from other crawler, notify it we've finished
+				if (!(task.getOriginator().equals("internal")))
+					sendComplete(task.getOriginator());
+				// Notify ThreadPool we've completed our task
+				threadCompletedTask();
+			}
 
-			if(TASKS.isEmpty())
-				taskComplete();
-			else
-				resetComplete();
-			return task;
+		} catch (Exception e) {
+			//System.err.println(e.getMessage());
 		}
 	}
 
 	/**
-	 * Add item to tail of LinkedList for processing
+	 * Start one task without blocking, the same accounting as
+	 * runTask is done when its future completes
 	 * @param CrawlerTask
+	 * @return CompletableFuture completing once the task is accounted for
 	 */
-	public void submit(CrawlerTask task) {
-		if(!shutDown) {
-			// Add task to queue, if we haven't already crawled it
+	CompletableFuture<Void> runTaskAsync(final CrawlerTask task) {
+		// Notify ThreadPool we've started our task
+		threadStartedTask();
+
+		CompletableFuture<Void> started;
+		try {
+			started = task.startAsync();
+		} catch (Exception e) {
+			started = CompletableFuture.completedFuture(null);
+		}
+		return started.handle(new BiFunction<Void, Throwable, Void>() {
+			public Void apply(Void result, Throwable error) {
+				try {
+					// If link sent from other crawler, notify it we've finished
+					if (!(task.getOriginator().equals("internal")))
+						sendComplete(task.getOriginator());
+				} finally {
+					// Notify ThreadPool we've completed our task
+					threadCompletedTask();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Find the next task for worker whose host is ready:
+	 * first from its own deque, then the shared frontier, then
+	 * by stealing from the deques of the other threads
+	 * @param CrawlerThread worker, null if not one of the pool's threads
+	 * @return CrawlTask, or null if none ready
+	 */
+	CrawlerTask nextTask(CrawlerThread worker) {
+		CrawlerTask task = worker == null ? null : takeReady(worker);
+		if(task == null){
 			synchronized(TASK_LOCK){
-				if(!(crawled.contains(task.getCrawlUrl()))){
-					// Reset completion status, if previously set to complete
-					resetComplete();
-					// Mark as crawled to prevent duplicate crawling
-					crawled.add(task.getCrawlUrl());
+				task = TASKS.poll(System.nanoTime());
+			}
+		}
+		if(task == null && LOCAL_QUEUES){
+			int start = ThreadLocalRandom.current().nextInt(THREADS.length);
+			for(int i = 0; i < THREADS.length && task == null; i++){
+				CrawlerThread victim = THREADS[(start + i) % THREADS.length];
+				if(victim != worker)
+					task = takeReady(victim);
+			}
+		}
 
-					if(debug)
-						System.out.println("Task added: " + task);
+		if(debug && task != null)
+			System.out.println("Starting crawl of task: " + task);
+		return task;
+	}
 
-					// Add the task
-					TASKS.add(task);
-				} else {
-					/*
-					 * Already crawled
-					 * If originated from outside this Crawler, send
-					 * task complete message to originator
-					 */
-					if (!(task.getOriginator().equals("internal"))) {
-						sendComplete(task.getOriginator());
-					}
-				}
+	/**
+	 * Take the oldest task on owner's deque that may be fetched now.
+	 * Tasks for hosts that aren't ready are moved to the shared
+	 * frontier, which holds them until their host is
+	 * @param CrawlerThread owner
+	 * @return CrawlerTask, or null
+	 */
+	private CrawlerTask takeReady(CrawlerThread owner){
+		CrawlerTask task;
+		while((task = owner.pollLocal()) != null){
+			if(POLITENESS.tryAcquire(task.getHost(), System.nanoTime()))
+				return task;
+			synchronized(TASK_LOCK){
+				TASKS.add(task);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Park worker until a task is submitted, or until
+	 * the next host in the frontier is ready
+	 * @param Thread worker, the calling thread
+	 */
+	void awaitWork(Thread worker){
+		long wait;
+		boolean ready;
+		// Register first, so a submit from here on unparks us
+		IDLE.add(worker);
+		synchronized(TASK_LOCK){
+			wait = TASKS.isEmpty() ? 0 : TASKS.nextReadyAt() - System.nanoTime();
+			ready = !TASKS.isEmpty() && wait <= 0;
+		}
+		for(int i = 0; i < THREADS.length && !ready && LOCAL_QUEUES; i++)
+			ready = THREADS[i].hasLocal();
+
+		if(!ready && !shutDown){
+			if(wait == 0)
+				LockSupport.park(this);
+			else
+				LockSupport.parkNanos(this, wait);
+		}
+		IDLE.remove(worker);
+	}
+
+	/**
+	 * Wake one parked thread, if there are any
+	 */
+	private void signalWork(){
+		Thread idle = IDLE.poll();
+		if(idle != null)
+			LockSupport.unpark(idle);
+	}
 
+	/**
+	 * Filter applied before a URL is admitted, using the rules of
+	 * its site if already loaded. Unknown sites have their robots.txt
+	 * loaded and are let through, to be checked again before fetching
+	 * @param String url
+	 * @return false if url is known to be disallowed
+	 */
+	private boolean allowedIfKnown(String url){
+		if(ROBOTS == null)
+			return true;
+		RobotsRules rules = ROBOTS.peek(url);
+		if(rules == null || rules.isAllowed(RobotsCache.pathOf(url)))
+			return true;
+		robotsBlocked.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Check made by a task before fetching url, waiting for the
+	 * site's robots.txt if it isn't loaded yet
+	 * @param String url
+	 * @return CompletableFuture of true if url may be fetched
+	 */
+	public CompletableFuture<Boolean> robotsAllow(String url){
+		if(ROBOTS == null || url == null)
+			return CompletableFuture.completedFuture(true);
+		return ROBOTS.isAllowed(url).thenApply(new Function<Boolean, Boolean>() {
+			public Boolean apply(Boolean allowed) {
+				if(!allowed)
+					robotsBlocked.incrementAndGet();
+				return allowed;
 			}
+		});
+	}
 
+	/**
+	 * Admit the links found on one page as a batch. Each is checked
+	 * against the crawled set before a task is built for it, and the
+	 * new ones are queued together, taking TASK_LOCK at most once
+	 * @param CrawlerTask page, the task whose page the links were found on
+	 * @param List<String> urls, absolute and canonical
+	 * @param List<String> rawUrls, each url before canonicalization, null where unchanged
+	 * @param int depth for the new tasks
+	 */
+	public void admit(CrawlerTask page, List<String> urls, List<String> rawUrls, int depth) {
+		if(shutDown || urls.isEmpty())
+			return;
+		String pageUrl = page.getCrawlUrl();
+		// Record the edges first, so they count towards the tasks' inlinks
+		ADJACENCY.addEdges(pageUrl, urls);
+
+		List<CrawlerTask> admitted = new ArrayList<CrawlerTask>();
+		for(int i = 0; i < urls.size(); i++){
+			String url = urls.get(i);
+			if(!allowedIfKnown(url))
+				continue;
+			if(CRAWLED.add(url)){
+				CrawlerTask task = CrawlerTask.restore(depth, url, pageUrl, page.getRootUrl(), this, "internal");
+				if(debug)
+					System.out.println("Task added: " + task);
+				admitted.add(task);
+				seenRawUrl(rawUrls.get(i));
+			} else if(seenRawUrl(rawUrls.get(i))){
+				duplicatesPrevented.incrementAndGet();
+			}
+		}
+		if(admitted.isEmpty())
+			return;
+
+		// Count them before they are visible, so we never look complete with them queued
+		pending.addAndGet(admitted.size());
+		Thread current = Thread.currentThread();
+		if(LOCAL_QUEUES && current instanceof CrawlerThread && ((CrawlerThread)current).belongsTo(this)){
+			for(CrawlerTask task : admitted)
+				((CrawlerThread)current).pushLocal(task);
+		} else {
+			synchronized(TASK_LOCK){
+				for(CrawlerTask task : admitted)
+					TASKS.add(task);
+			}
+		}
+		// Wake as many waiting THREADS as there are new tasks
+		for(int i = 0; i < admitted.size() && !IDLE.isEmpty(); i++)
+			signalWork();
+	}
+
+	/**
+	 * Note the form a link had before canonicalization rewrote it.
+	 * Without canonicalization each distinct form is fetched once, so
+	 * only its first sighting can be a prevented fetch
+	 * @param String rawUrl, null if the link wasn't rewritten
+	 * @return true if rawUrl is a rewritten form not seen before
+	 */
+	private boolean seenRawUrl(String rawUrl){
+		return rawUrl != null && rawUrlsSeen.add(Hashing.hash64(rawUrl, 0));
+	}
+
+	/**
+	 * Admit a task for processing, unless already crawled
+	 * @param CrawlerTask
+	 */
+	public void submit(CrawlerTask task) {
+		if(!shutDown) {
+			// Record the edge first, so it counts towards the task's inlinks
 			if (!(task.getOriginator().equals("internal")))
 				ADJACENCY.addEdge(task.getOriginator(), task.getCrawlUrl());
 			else
 				ADJACENCY.addEdge(task.getParentUrl(), task.getCrawlUrl());
 
-			// If any THREADS waiting, notify task added to queue
-			synchronized(WAIT_LOCK){
-				WAIT_LOCK.notify();
+			/*
+			 * Add task to queue, if we haven't already crawled it.
+			 * The seen-URL store does its own atomic check-and-insert,
+			 * so only the shared frontier needs TASK_LOCK
+			 */
+			String crawlUrl = task.getCrawlUrl();
+			if(crawlUrl != null && allowedIfKnown(crawlUrl) && CRAWLED.add(crawlUrl)){
+				if(debug)
+					System.out.println("Task added: " + task);
+
+				// Count it before it is visible, so we never look complete with it queued
+				pending.incrementAndGet();
+
+				// Keep links found by a thread on its own deque, anything else goes to the frontier
+				Thread current = Thread.currentThread();
+				if(LOCAL_QUEUES && current instanceof CrawlerThread && ((CrawlerThread)current).belongsTo(this)){
+					((CrawlerThread)current).pushLocal(task);
+				} else {
+					synchronized(TASK_LOCK){
+						TASKS.add(task);
+					}
+				}
+				// If any THREADS waiting, wake one to pick it up
+				signalWork();
+				seenRawUrl(task.getRawUrl());
+			} else {
+				if(crawlUrl != null && CRAWLED.contains(crawlUrl) && seenRawUrl(task.getRawUrl()))
+					duplicatesPrevented.incrementAndGet();
+				/*
+				 * Already crawled
+				 * If originated from outside this Crawler, send
+				 * task complete message to originator
+				 */
+				if (!(task.getOriginator().equals("internal"))) {
+					sendComplete(task.getOriginator());
+				}
 			}
 		} else {
 			System.out.println("Unable to add task to queue, CrawlerThreadPool has shutdown...");
@@ -225,14 +681,13 @@ public class CrawlerThreadPool{
 	 */
 	public void stop() {
 		try{
-			// Call shutdown on all THREADS in pool
+			shutDown = true;
+			// Call shutdown on all THREADS in pool, this also wakes any that are parked
 			for(CrawlerThread crawlThread : THREADS) {
 				crawlThread.shutdown();
 			}
-			// Notify all THREADS still waiting on lock to finish
-			synchronized (this.WAIT_LOCK) {
-				WAIT_LOCK.notifyAll();
-			}
+			if(DISPATCHER != null)
+				DISPATCHER.shutdown();
 			// Finally, wait for all THREADS to complete TASKS
 			for(CrawlerThread crawlThread : THREADS) {
 				try {
@@ -241,6 +696,14 @@ public class CrawlerThreadPool{
 					e.printStackTrace();
 				}
 			}
+			// Disk backed seen-URL stores delete their files here
+			CRAWLED.close();
+			if(VALIDATORS != null)
+				VALIDATORS.close();
+			if(RESPONSES != null){
+				PageFetcher.getInstance().setStore(null, false);
+				RESPONSES.close();
+			}
 		}finally{
 			System.exit(0);
 		}
@@ -0,0 +1,37 @@
+package cs455.harvester.thread;
+
+import cs455.harvester.task.CrawlerTask;
+
+/**
+ * The set of admitted tasks waiting to be crawled, and the
+ * order and timing in which they are handed to threads.
+ * 
+ * Implementations need not be thread safe, the pool
+ * only touches its frontier while holding TASK_LOCK.
+ */
+public interface Frontier {
+
+	/**
+	 * Add an admitted task
+	 * @param CrawlerTask
+	 */
+	public void add(CrawlerTask task);
+
+	/**
+	 * Take the next task that may be crawled at time now
+	 * @param long now, System.nanoTime()
+	 * @return CrawlerTask, or null if none ready
+	 */
+	public CrawlerTask poll(long now);
+
+	/**
+	 * @return System.nanoTime() at which poll() may next return
+	 * a task, only meaningful if not empty
+	 */
+	public long nextReadyAt();
+
+	public boolean isEmpty();
+
+	public int size();
+
+}
@@ -0,0 +1,186 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.thread;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import cs455.harvester.task.CrawlerTask;
+
+/**
+ * Frontier split by host. Hosts with waiting tasks are kept
+ * in a heap ordered by the time the PolitenessScheduler allows
+ * their next fetch, so poll() never looks at hosts that must
+ * still wait. Hosts whose time has come move to a
+ * second heap ordered by their best task, so of the hosts that
+ * may be fetched from now, the one holding the lowest key in the
+ * TaskOrdering goes first. Within a host, tasks leave in key order.
+ * 
+ * Not thread safe, callers hold the pool's TASK_LOCK.
+ */
+public class HostTaskQueue implements Frontier {
+
+	// Instance variables **************
+	private final PolitenessScheduler SCHEDULER;
+	private final TaskOrdering ORDERING;
+	private final Map<String, Host> HOSTS;
+	private final PriorityQueue<Host> WAITING;
+	private final PriorityQueue<Ready> READY;
+	private long sequence = 0;
+	private int size = 0;
+
+	public HostTaskQueue(PolitenessScheduler scheduler, TaskOrdering ordering){
+		SCHEDULER = scheduler;
+		ORDERING = ordering;
+		HOSTS = new HashMap<String, Host>();
+		WAITING = new PriorityQueue<Host>(11, new Comparator<Host>() {
+			public int compare(Host a, Host b) {
+				return Long.signum(a.readyAt - b.readyAt);
+			}
+		});
+		READY = new PriorityQueue<Ready>();
+	}
+
+	@Override
+	public void add(CrawlerTask task){
+		String name = task.getHost();
+		Host host = HOSTS.get(name);
+		if(host == null){
+			host = new Host(name);
+			HOSTS.put(name, host);
+		}
+		Entry entry = new Entry(task, ORDERING.key(task), sequence++);
+		if(host.tasks.isEmpty()){
+			host.readyAt = SCHEDULER.readyAt(name);
+			WAITING.add(host);
+		}
+		// A new best task for a ready host, re-file it under that
+		else if(host.ready && entry.compareTo(host.tasks.peek()) < 0)
+			READY.add(new Ready(host, entry));
+		host.tasks.add(entry);
+		size++;
+	}
+
+	@Override
+	public CrawlerTask poll(long now){
+		while(true){
+			// Every host whose time has come competes on its best task
+			while(!WAITING.isEmpty() && WAITING.peek().readyAt - now <= 0){
+				Host host = WAITING.poll();
+				host.ready = true;
+				READY.add(new Ready(host, host.tasks.peek()));
+			}
+			Host host = nextReady();
+			if(host == null)
+				return null;
+			READY.poll();
+			host.ready = false;
+			if(SCHEDULER.tryAcquire(host.name, now)){
+				CrawlerTask task = host.tasks.poll().task;
+				size--;
+				if(!host.tasks.isEmpty()){
+					host.readyAt = SCHEDULER.readyAt(host.name);
+					WAITING.add(host);
+				}
+				return task;
+			}
+			// Fetched from elsewhere since it was queued, re-sort by its new time
+			host.readyAt = SCHEDULER.readyAt(host.name);
+			WAITING.add(host);
+		}
+	}
+
+	@Override
+	public long nextReadyAt(){
+		Host host = nextReady();
+		if(host != null)
+			return host.readyAt;
+		host = WAITING.peek();
+		return host == null ? Long.MAX_VALUE : host.readyAt;
+	}
+
+	/**
+	 * Drop READY entries filed under a task that is no longer
+	 * its host's best, one is always filed under the current one
+	 * @return Host at the top of READY, null if none
+	 */
+	private Host nextReady(){
+		while(!READY.isEmpty()){
+			Ready top = READY.peek();
+			if(top.host.ready && top.head == top.host.tasks.peek())
+				return top.host;
+			READY.poll();
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	@Override
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Waiting tasks for a single host
+	 */
+	private static class Host {
+		private final String name;
+		private final PriorityQueue<Entry> tasks = new PriorityQueue<Entry>();
+		private long readyAt;
+		private boolean ready = false;
+
+		Host(String name){
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A ready host, filed under its best task at the time
+	 */
+	private static class Ready implements Comparable<Ready> {
+		private final Host host;
+		private final Entry head;
+
+		Ready(Host host, Entry head){
+			this.host = host;
+			this.head = head;
+		}
+
+		public int compareTo(Ready other) {
+			return head.compareTo(other.head);
+		}
+	}
+
+	/**
+	 * A task with the key it was given on arrival. Keys are never
+	 * recomputed while queued, so the heap order stays valid
+	 */
+	private static class Entry implements Comparable<Entry> {
+		private final CrawlerTask task;
+		private final long key;
+		private final long sequence;
+
+		Entry(CrawlerTask task, long key, long sequence){
+			this.task = task;
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+		public int compareTo(Entry other) {
+			if(key != other.key)
+				return key < other.key ? -1 : 1;
+			return Long.signum(sequence - other.sequence);
+		}
+	}
+
+}//************** END HostTaskQueue **************
@@ -0,0 +1,94 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.thread;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks, per host, the earliest time the next fetch may start.
+ * 
+ * Hosts are given "slots" fetch slots that each rest for "delay"
+ * milliseconds, spread evenly: a host is handed a new fetch every
+ * delay / slots milliseconds. With slots equal to the pool size
+ * this matches the old one second rest per thread when every thread
+ * works the same host, but a thread is never held back from a
+ * different host that is ready. A host may have its own spacing
+ * set, e.g. from a robots.txt Crawl-delay.
+ */
+public class PolitenessScheduler {
+
+	// Instance variables **************
+	private final long DEFAULT_GAP;
+	private final ConcurrentMap<String, AtomicLong> NEXT_FETCH;
+	private final ConcurrentMap<String, Long> HOST_GAP;
+
+	/**
+	 * @param long delay, rest in milliseconds per fetch slot
+	 * @param int slots, fetch slots per host
+	 */
+	public PolitenessScheduler(long delay, int slots){
+		DEFAULT_GAP = TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)) / Math.max(slots, 1);
+		NEXT_FETCH = new ConcurrentHashMap<String, AtomicLong>();
+		HOST_GAP = new ConcurrentHashMap<String, Long>();
+	}
+
+	/**
+	 * Claim the next fetch for host if it is allowed at time now
+	 * @param String host
+	 * @param long now, System.nanoTime()
+	 * @return true if the caller may fetch from host now
+	 */
+	public boolean tryAcquire(String host, long now){
+		AtomicLong next = nextFetch(host);
+		long gap = gap(host);
+		while(true){
+			long allowed = next.get();
+			if(allowed - now > 0)
+				return false;
+			if(next.compareAndSet(allowed, now + gap))
+				return true;
+		}
+	}
+
+	/**
+	 * @param String host
+	 * @return System.nanoTime() at which host may next be fetched
+	 */
+	public long readyAt(String host){
+		return nextFetch(host).get();
+	}
+
+	/**
+	 * Set a host specific spacing between fetches, overriding the default
+	 * @param String host
+	 * @param long millis
+	 */
+	public void setHostDelay(String host, long millis){
+		HOST_GAP.put(host, TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0)));
+	}
+
+	private long gap(String host){
+		Long gap = HOST_GAP.get(host);
+		return gap == null ? DEFAULT_GAP : gap;
+	}
+
+	private AtomicLong nextFetch(String host){
+		AtomicLong next = NEXT_FETCH.get(host);
+		if(next == null){
+			// Any time before now, so a new host is immediately ready
+			AtomicLong created = new AtomicLong(System.nanoTime() - DEFAULT_GAP);
+			next = NEXT_FETCH.putIfAbsent(host, created);
+			if(next == null)
+				next = created;
+		}
+		return next;
+	}
+
+}//************** END PolitenessScheduler **************
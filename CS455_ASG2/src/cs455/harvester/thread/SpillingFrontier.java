@@ -0,0 +1,196 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.thread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+
+import cs455.harvester.task.CrawlerTask;
+
+/**
+ * Frontier that keeps at most HOT_LIMIT tasks in memory, in the
+ * wrapped Frontier, and appends any overflow to memory-mapped segment
+ * files on disk. Segments are read back in the order they were
+ * written whenever the in-memory window drains below half full, and
+ * deleted once read, so frontier size is bounded by disk, not heap.
+ * 
+ * Spilled tasks only take part in the wrapped Frontier's ordering
+ * once they are read back in.
+ * 
+ * Not thread safe, callers hold the pool's TASK_LOCK.
+ */
+public class SpillingFrontier implements Frontier {
+
+	// Instance variables **************
+	private final Frontier HOT;
+	private final int HOT_LIMIT;
+	private final int SEGMENT_BYTES;
+	private final File DIRECTORY;
+	private final CrawlerThreadPool POOL;
+	private final LinkedList<Segment> SEGMENTS;
+	private int segmentCount = 0;
+	private int spilled = 0;
+
+	/**
+	 * @param Frontier hot, in-memory frontier to wrap
+	 * @param int hotLimit, max tasks kept in memory
+	 * @param int segmentBytes, size of each segment file
+	 * @param File directory for the segment files, created if missing
+	 * @param CrawlerThreadPool the tasks are restored into
+	 * @throws IOException
+	 */
+	public SpillingFrontier(Frontier hot, int hotLimit, int segmentBytes, File directory, CrawlerThreadPool pool) throws IOException{
+		HOT = hot;
+		HOT_LIMIT = Math.max(hotLimit, 2);
+		SEGMENT_BYTES = segmentBytes;
+		DIRECTORY = directory;
+		POOL = pool;
+		SEGMENTS = new LinkedList<Segment>();
+		if(!DIRECTORY.exists() && !DIRECTORY.mkdirs())
+			throw new IOException("Unable to create frontier directory " + DIRECTORY);
+	}
+
+	@Override
+	public void add(CrawlerTask task) {
+		// Once anything has spilled, keep appending so segments stay in arrival order
+		if(spilled == 0 && HOT.size() < HOT_LIMIT){
+			HOT.add(task);
+			return;
+		}
+		try {
+			spill(task);
+		} catch (IOException e) {
+			System.err.println("Unable to spill task to disk, keeping it in memory: " + e.getMessage());
+			HOT.add(task);
+		}
+	}
+
+	@Override
+	public CrawlerTask poll(long now) {
+		if(spilled > 0 && HOT.size() < HOT_LIMIT / 2)
+			refill();
+		return HOT.poll(now);
+	}
+
+	@Override
+	public long nextReadyAt() {
+		// Spilled work is ready to be read in as soon as asked for
+		if(HOT.isEmpty() && spilled > 0)
+			return System.nanoTime();
+		return HOT.nextReadyAt();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return spilled == 0 && HOT.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return spilled + HOT.size();
+	}
+
+	/**
+	 * Append task to the newest segment, starting a new one if full
+	 * Record format: depth, then crawl, parent, root and originator
+	 * URLs as [length][UTF-8 bytes]
+	 * @param CrawlerTask
+	 * @throws IOException
+	 */
+	private void spill(CrawlerTask task) throws IOException{
+		byte[] crawl = task.getCrawlUrl().getBytes(StandardCharsets.UTF_8);
+		byte[] parent = task.getParentUrl().getBytes(StandardCharsets.UTF_8);
+		byte[] root = task.getRootUrl().getBytes(StandardCharsets.UTF_8);
+		byte[] originator = task.getOriginator().getBytes(StandardCharsets.UTF_8);
+		int length = 4 + 16 + crawl.length + parent.length + root.length + originator.length;
+
+		Segment segment = SEGMENTS.peekLast();
+		if(segment == null || segment.writeBuffer.remaining() < length){
+			segment = new Segment(Math.max(SEGMENT_BYTES, length));
+			SEGMENTS.add(segment);
+		}
+		ByteBuffer out = segment.writeBuffer;
+		out.putInt(task.getRecursionDepth());
+		out.putInt(crawl.length).put(crawl);
+		out.putInt(parent.length).put(parent);
+		out.putInt(root.length).put(root);
+		out.putInt(originator.length).put(originator);
+		segment.records++;
+		spilled++;
+	}
+
+	/**
+	 * Read spilled tasks back, oldest first, until the
+	 * in-memory window is full or nothing is left on disk
+	 */
+	private void refill(){
+		while(spilled > 0 && HOT.size() < HOT_LIMIT){
+			Segment segment = SEGMENTS.peekFirst();
+			if(segment.records == 0){
+				// Fully read, and nothing more will be written to it once a newer one exists
+				if(SEGMENTS.size() == 1)
+					return;
+				SEGMENTS.removeFirst().delete();
+				continue;
+			}
+			ByteBuffer in = segment.readBuffer;
+			int depth = in.getInt();
+			String crawl = readString(in);
+			String parent = readString(in);
+			String root = readString(in);
+			String originator = readString(in);
+			segment.records--;
+			spilled--;
+			HOT.add(CrawlerTask.restore(depth, crawl, parent, root, POOL, originator));
+		}
+		// Release a drained segment straight away if it is the only one
+		if(spilled == 0 && !SEGMENTS.isEmpty()){
+			SEGMENTS.removeFirst().delete();
+		}
+	}
+
+	private String readString(ByteBuffer in){
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * One append-only, memory-mapped segment file
+	 */
+	private class Segment {
+		private final File file;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer writeBuffer;
+		private final ByteBuffer readBuffer;
+		private int records = 0;
+
+		Segment(int bytes) throws IOException{
+			file = new File(DIRECTORY, "segment-" + segmentCount++);
+			file.delete();
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(bytes);
+			writeBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			// Independent position over the same mapping, reads trail writes
+			readBuffer = writeBuffer.duplicate();
+		}
+
+		void delete(){
+			try {
+				raf.close();
+			} catch (IOException e) {}
+			file.delete();
+		}
+	}
+
+}//************** END SpillingFrontier **************
@@ -0,0 +1,120 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import cs455.harvester.task.CrawlerTask;
+
+/**
+ * Alternative to a fixed set of CrawlerThreads: a single thread takes
+ * ready tasks from the pool and either runs each on its own virtual
+ * thread, or, in async mode, starts each with CrawlerTask.startAsync
+ * so its fetch doesn't hold any thread at all. Concurrency is bounded
+ * by a semaphore of maxInFlight permits rather than by a thread count,
+ * so thousands of fetches can be in flight at once.
+ * 
+ * Virtual threads are looked up reflectively, so this still builds on
+ * older JDKs. Where they are missing a cached pool of platform threads
+ * is used instead, still bounded by the same semaphore.
+ */
+public class TaskDispatcher extends Thread {
+
+	// Instance variables **************
+	private final CrawlerThreadPool pool;
+	private final ExecutorService executor;
+	private final Semaphore inFlight;
+	private final boolean async;
+	private volatile boolean active = true;
+
+	/**
+	 * @param CrawlerThreadPool pool to take tasks from
+	 * @param int maxInFlight, tasks allowed to run at once
+	 * @param boolean async, use startAsync rather than a virtual thread per task
+	 */
+	public TaskDispatcher(CrawlerThreadPool pool, int maxInFlight, boolean async){
+		super("TaskDispatcher");
+		this.pool = pool;
+		this.async = async;
+		this.executor = async ? null : createExecutor();
+		this.inFlight = new Semaphore(Math.max(maxInFlight, 1));
+	}
+
+	/**
+	 * @return a virtual thread per task executor if the JDK has them,
+	 * otherwise a cached platform thread pool
+	 */
+	private static ExecutorService createExecutor(){
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch (Exception e) {
+			System.out.println("Virtual threads unavailable on this JVM, running tasks on a cached thread pool");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Hand each ready task to the executor, once a permit is free
+	 */
+	public void run() {
+		while(active) {
+			try {
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			final CrawlerTask task = pool.nextTask(null);
+			if(task == null){
+				inFlight.release();
+				// Park until a task is submitted, or the next host is ready
+				pool.awaitWork(this);
+				continue;
+			}
+
+			if(async){
+				pool.runTaskAsync(task).whenComplete(new BiConsumer<Void, Throwable>() {
+					public void accept(Void result, Throwable error) {
+						inFlight.release();
+					}
+				});
+				continue;
+			}
+
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						pool.runTask(task);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stop dispatching, and wait for tasks in flight to finish
+	 */
+	void shutdown() {
+		active = false;
+		this.interrupt();
+		if(executor != null){
+			executor.shutdown();
+			try {
+				executor.awaitTermination(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {}
+		}
+	}
+
+}//************** END TaskDispatcher **************
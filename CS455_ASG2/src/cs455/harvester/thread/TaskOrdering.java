@@ -0,0 +1,75 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.thread;
+
+import cs455.harvester.task.CrawlerTask;
+import cs455.harvester.util.AdjacencyList;
+
+/**
+ * Decides the order tasks leave the Frontier in. Each task gets
+ * a key when it is added, lower keys are crawled first and equal
+ * keys in the order they were added.
+ */
+public abstract class TaskOrdering {
+
+	/**
+	 * @param CrawlerTask
+	 * @return long key, lower is crawled sooner
+	 */
+	public abstract long key(CrawlerTask task);
+
+	/**
+	 * Arrival order, the original behavior
+	 */
+	public static final TaskOrdering FIFO = new TaskOrdering() {
+		public long key(CrawlerTask task) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Strict breadth first: every page one level down is crawled
+	 * before any page two levels down. Depth counts down from
+	 * RECURSION_DEPTH, so a larger depth is closer to the root
+	 */
+	public static final TaskOrdering BFS = new TaskOrdering() {
+		public long key(CrawlerTask task) {
+			return -task.getRecursionDepth();
+		}
+	};
+
+	/**
+	 * Most linked to pages first, by the number of pages found linking
+	 * to the URL when it was admitted. Shallower pages break ties
+	 * @param AdjacencyList graph being built by the pool
+	 * @return TaskOrdering
+	 */
+	public static TaskOrdering inlinks(final AdjacencyList adjacency){
+		return new TaskOrdering() {
+			public long key(CrawlerTask task) {
+				return -(((long)adjacency.inDegree(task.getCrawlUrl()) << 16) + task.getRecursionDepth());
+			}
+		};
+	}
+
+	/**
+	 * Look up an ordering by name: "fifo", "bfs" or "inlinks"
+	 * @param String name
+	 * @param AdjacencyList
+	 * @return TaskOrdering, FIFO if name is not recognized
+	 */
+	public static TaskOrdering forName(String name, AdjacencyList adjacency){
+		if(name.equals("bfs"))
+			return BFS;
+		if(name.equals("inlinks"))
+			return inlinks(adjacency);
+		if(!name.equals("fifo"))
+			System.out.println("Unknown frontier order \"" + name + "\", using fifo");
+		return FIFO;
+	}
+
+}//************** END TaskOrdering **************
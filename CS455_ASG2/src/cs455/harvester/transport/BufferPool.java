@@ -0,0 +1,62 @@
+package cs455.harvester.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized direct ByteBuffers. Direct buffers are costly
+ * to allocate and are only freed by the garbage collector, so they
+ * are handed back here when done with rather than dropped. At most
+ * maxPooled are kept, any more given back are left to be collected.
+ */
+public class BufferPool {
+
+	// Instance variables **************
+	private final int BUFFER_SIZE;
+	private final int MAX_POOLED;
+	private final ConcurrentLinkedQueue<ByteBuffer> FREE;
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * @param int bufferSize, capacity of each buffer in bytes
+	 * @param int maxPooled, most free buffers kept
+	 */
+	public BufferPool(int bufferSize, int maxPooled){
+		BUFFER_SIZE = bufferSize;
+		MAX_POOLED = maxPooled;
+		FREE = new ConcurrentLinkedQueue<ByteBuffer>();
+	}
+
+	/**
+	 * @return a cleared buffer, from the pool if there is one free
+	 */
+	public ByteBuffer acquire(){
+		ByteBuffer buffer = FREE.poll();
+		if(buffer == null)
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer from acquire() back, it mustn't be used after
+	 * @param ByteBuffer buffer
+	 */
+	public void release(ByteBuffer buffer){
+		if(pooled.incrementAndGet() > MAX_POOLED){
+			pooled.decrementAndGet();
+			return;
+		}
+		FREE.offer(buffer);
+	}
+
+	/**
+	 * @return capacity of the pooled buffers
+	 */
+	public int getBufferSize(){
+		return BUFFER_SIZE;
+	}
+
+}
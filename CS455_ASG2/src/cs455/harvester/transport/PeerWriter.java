@@ -0,0 +1,162 @@
+package cs455.harvester.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cs455.harvester.wireformats.Event;
+
+/**
+ * Sends Events to one peer from a thread of its own, so callers only
+ * ever queue and never wait on the socket.
+ * 
+ * The queue is lock free and bounded at capacity Events. The writer
+ * takes everything queued, up to coalesceBytes at a time, encodes the
+ * frames back to back (an int length then the Event, as TCPSender
+ * writes them) and hands them to the socket in one write, so a burst
+ * of small messages costs one system call rather than one each.
+ * Events go out in the order they were queued.
+ * 
+ * Only a caller that finds the queue full waits, for room to be made,
+ * which keeps a peer that stops reading from using unbounded memory.
+ */
+public class PeerWriter extends Thread {
+
+	// Instance variables **************
+	private final Socket SOCKET;
+	private final OutputStream OUT;
+	private final ConcurrentLinkedQueue<Event> QUEUE;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong framesWritten = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final int CAPACITY;
+	private final int COALESCE_BYTES;
+	private ByteBuffer buffer;
+	private volatile boolean open = true;
+
+	/**
+	 * @param Socket socket, connected to the peer
+	 * @param String name, for the thread
+	 * @param int capacity, most Events queued
+	 * @param int coalesceBytes, most bytes gathered into one write
+	 * @throws IOException if the socket can't be written to
+	 */
+	public PeerWriter(Socket socket, String name, int capacity, int coalesceBytes) throws IOException {
+		super("PeerWriter-" + name);
+		setDaemon(true);
+		SOCKET = socket;
+		SOCKET.setTcpNoDelay(true);
+		OUT = socket.getOutputStream();
+		QUEUE = new ConcurrentLinkedQueue<Event>();
+		CAPACITY = Math.max(capacity, 1);
+		COALESCE_BYTES = Math.max(coalesceBytes, 1024);
+		buffer = ByteBuffer.allocate(COALESCE_BYTES);
+	}
+
+	/**
+	 * Queue event to be sent, waiting only if the queue is full
+	 * @param Event event
+	 * @return false if the connection has failed or been closed
+	 */
+	public boolean send(Event event){
+		while(true){
+			if(!open)
+				return false;
+			int count = queued.get();
+			if(count < CAPACITY && queued.compareAndSet(count, count + 1))
+				break;
+			if(count >= CAPACITY)
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		QUEUE.offer(event);
+		LockSupport.unpark(this);
+		return true;
+	}
+
+	/**
+	 * Send what is queued, then stop and close the socket
+	 */
+	public void close(){
+		open = false;
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * @return number of Events queued and not yet written
+	 */
+	public int getQueued(){
+		return queued.get();
+	}
+
+	/**
+	 * @return Events written so far
+	 */
+	public long getFramesWritten(){
+		return framesWritten.get();
+	}
+
+	/**
+	 * @return socket writes made so far
+	 */
+	public long getWrites(){
+		return writes.get();
+	}
+
+	public void run(){
+		try {
+			while(open || !QUEUE.isEmpty()){
+				Event event = QUEUE.poll();
+				if(event == null){
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+					continue;
+				}
+				int frames = 0;
+				buffer.clear();
+				do {
+					int length = event.getEncodedLength();
+					if(buffer.remaining() < 4 + length){
+						if(buffer.position() > 0){
+							// Full, send what's gathered and start again
+							write(frames);
+							frames = 0;
+						}
+						if(buffer.capacity() < 4 + length)
+							buffer = ByteBuffer.allocate(4 + length);
+					}
+					buffer.putInt(length);
+					event.encode(buffer);
+					frames++;
+				} while(buffer.position() < COALESCE_BYTES && (event = QUEUE.poll()) != null);
+				write(frames);
+			}
+		} catch (IOException e) {
+			System.out.println("Error sending to " + SOCKET.getRemoteSocketAddress() + ": " + e.getMessage());
+		} finally {
+			open = false;
+			QUEUE.clear();
+			queued.set(0);
+			try {
+				SOCKET.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Write the gathered frames in one go
+	 * @param int frames, number gathered
+	 */
+	private void write(int frames) throws IOException {
+		OUT.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+		queued.addAndGet(-frames);
+		framesWritten.addAndGet(frames);
+		writes.incrementAndGet();
+	}
+
+}
@@ -5,6 +5,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 import cs455.harvester.Node;
 import cs455.harvester.wireformats.Event;
@@ -18,6 +19,8 @@ public class TCPReceiverThread extends Thread{
 	private DataInputStream din;
 	private Node node;
 	private EventFactory ef = EventFactory.getInstance();
+	// Reused for every frame, grown as needed
+	private byte[] data = new byte[1024];
 
 	/**
 	 * Main constructor
@@ -42,7 +45,8 @@ public class TCPReceiverThread extends Thread{
 
 				// Get data, and send to node for processing
 				int dataLength = din.readInt();
-				byte[] data = new byte[dataLength];
+				if(data.length < dataLength)
+					data = new byte[Math.max(dataLength, data.length * 2)];
 				din.readFully(data, 0, dataLength);
 				/*
 				 * Build Event to send to receiver
@@ -52,8 +56,9 @@ public class TCPReceiverThread extends Thread{
 				 * where the message originated from
 				 */
 
-				Event e = ef.getEvent(data);
-				node.onEvent(e);
+				Event e = ef.getEvent(ByteBuffer.wrap(data, 0, dataLength));
+				if(e != null)
+					node.onEvent(e);
 
 			} catch (SocketException se) {
 				System.out.println(se.getMessage());
@@ -0,0 +1,266 @@
+package cs455.harvester.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import cs455.harvester.Node;
+import cs455.harvester.wireformats.Event;
+import cs455.harvester.wireformats.EventFactory;
+
+/**
+ * Receives Events from every connected Crawler on a fixed number of
+ * I/O threads, in place of a TCPReceiverThread per connection.
+ * 
+ * Each thread runs its own Selector. The first also accepts new
+ * connections, which are spread over the threads in turn. Sockets
+ * are read without blocking, and frames (an int length then that
+ * many bytes, as TCPSender writes them) are cut out of the bytes as
+ * they arrive, decoded where they lie, and handed to the Node on
+ * the I/O thread.
+ * 
+ * Reads go into direct buffers from a BufferPool. A connection only
+ * holds a buffer while part of a frame is waiting in it, so idle
+ * peers cost no memory beyond their socket. Frames too big for a
+ * pooled buffer are gathered in a heap buffer of their own.
+ */
+public class TCPSelectorServer {
+
+	// Largest frame accepted before the connection is dropped
+	private static final int MAX_FRAME = 64 << 20;
+
+	// Instance variables **************
+	private final ServerSocketChannel SERVER;
+	private final Node NODE;
+	private final BufferPool POOL;
+	private final SelectorLoop[] LOOPS;
+	private final EventFactory ef = EventFactory.getInstance();
+	private int nextLoop = 0;
+
+	/**
+	 * @param ServerSocketChannel server, bound and listening
+	 * @param Node node, receives every Event
+	 * @param int threads, number of I/O threads
+	 * @param BufferPool pool, read buffers
+	 * @throws IOException if a Selector can't be opened
+	 */
+	public TCPSelectorServer(ServerSocketChannel server, Node node, int threads, BufferPool pool) throws IOException {
+		SERVER = server;
+		NODE = node;
+		POOL = pool;
+		LOOPS = new SelectorLoop[Math.max(threads, 1)];
+		for(int i = 0; i < LOOPS.length; i++)
+			LOOPS[i] = new SelectorLoop(i);
+	}
+
+	/**
+	 * Start accepting connections and receiving Events
+	 * @throws IOException if the server channel can't be registered
+	 */
+	public void start() throws IOException {
+		SERVER.configureBlocking(false);
+		SERVER.register(LOOPS[0].selector, SelectionKey.OP_ACCEPT);
+		for(SelectorLoop loop : LOOPS)
+			loop.start();
+	}
+
+	/**
+	 * Stop the I/O threads and close every connection
+	 */
+	public void close(){
+		for(SelectorLoop loop : LOOPS)
+			loop.close();
+	}
+
+	/**
+	 * Accept every pending connection, handing each to the next loop
+	 */
+	private void accept(){
+		try {
+			SocketChannel channel;
+			while((channel = SERVER.accept()) != null){
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				LOOPS[nextLoop].add(channel);
+				nextLoop = (nextLoop + 1) % LOOPS.length;
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Read what has arrived on a connection, delivering each whole frame
+	 * @param SelectionKey key
+	 */
+	private void read(SelectionKey key){
+		SocketChannel channel = (SocketChannel) key.channel();
+		Inbound in = (Inbound) key.attachment();
+		try {
+			if(in.large != null){
+				// Part way through a frame bigger than a pooled buffer
+				if(channel.read(in.large) < 0){
+					close(key, in);
+					return;
+				}
+				if(!in.large.hasRemaining()){
+					in.large.flip();
+					deliver(in.large);
+					in.large = null;
+				}
+				return;
+			}
+			if(in.buffer == null)
+				in.buffer = POOL.acquire();
+			if(channel.read(in.buffer) < 0){
+				close(key, in);
+				return;
+			}
+			ByteBuffer buffer = in.buffer;
+			buffer.flip();
+			while(buffer.remaining() >= 4){
+				int length = buffer.getInt(buffer.position());
+				if(length < 0 || length > MAX_FRAME){
+					System.out.println("Dropping connection, bad frame length " + length);
+					close(key, in);
+					return;
+				}
+				if(length > buffer.capacity() - 4){
+					// Can't fit, gather it in a buffer of its own
+					buffer.position(buffer.position() + 4);
+					in.large = ByteBuffer.allocate(length);
+					in.large.put(buffer);
+					break;
+				}
+				if(buffer.remaining() < 4 + length)
+					break;
+				// Decode in place, limited to this frame
+				int end = buffer.position() + 4 + length;
+				int limit = buffer.limit();
+				buffer.position(buffer.position() + 4).limit(end);
+				deliver(buffer);
+				buffer.limit(limit).position(end);
+			}
+			buffer.compact();
+			if(buffer.position() == 0){
+				// Nothing partial left, the buffer can serve another connection
+				POOL.release(buffer);
+				in.buffer = null;
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			close(key, in);
+		}
+	}
+
+	private void deliver(ByteBuffer frame){
+		Event e = ef.getEvent(frame);
+		if(e == null)
+			return;
+		try {
+			NODE.onEvent(e);
+		} catch (RuntimeException re) {
+			// One bad Event mustn't stop the thread serving every other peer
+			re.printStackTrace();
+		}
+	}
+
+	private void close(SelectionKey key, Inbound in){
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {}
+		if(in.buffer != null){
+			POOL.release(in.buffer);
+			in.buffer = null;
+		}
+		in.large = null;
+	}
+
+	/**
+	 * Read state of one connection
+	 */
+	private static class Inbound {
+		// Pooled, in write mode, null while no partial frame is held
+		ByteBuffer buffer;
+		// A frame bigger than a pooled buffer, null if none
+		ByteBuffer large;
+	}
+
+	/**
+	 * One I/O thread and its Selector
+	 */
+	private class SelectorLoop extends Thread {
+
+		// Instance variables **************
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+		private volatile boolean open = true;
+
+		SelectorLoop(int id) throws IOException {
+			super("TCPSelector-" + id);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		/**
+		 * Have this loop serve channel, from any thread
+		 * @param SocketChannel channel
+		 */
+		void add(SocketChannel channel){
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		void close(){
+			open = false;
+			selector.wakeup();
+		}
+
+		public void run(){
+			try {
+				while(open){
+					selector.select();
+					SocketChannel channel;
+					while((channel = pending.poll()) != null){
+						try {
+							channel.register(selector, SelectionKey.OP_READ, new Inbound());
+						} catch (IOException e) {
+							System.out.println(e.getMessage());
+						}
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()){
+						SelectionKey key = keys.next();
+						keys.remove();
+						if(!key.isValid())
+							continue;
+						if(key.isAcceptable())
+							accept();
+						else if(key.isReadable())
+							read(key);
+					}
+				}
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+			} catch (ClosedSelectorException e) {
+			} finally {
+				for(SelectionKey key : selector.keys()){
+					if(key.attachment() instanceof Inbound)
+						TCPSelectorServer.this.close(key, (Inbound) key.attachment());
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {}
+			}
+		}
+
+	}
+
+}
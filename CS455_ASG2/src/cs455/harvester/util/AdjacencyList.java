@@ -26,6 +26,7 @@ public class AdjacencyList {
 	private final String DIRECTORY_ROOT = "/tmp/cs455-shaunpa/";
 	private final String NODE_ROOT;
 	private final Map<String, Set<String>> ADJACENCY;
+	private final Map<String, Integer> IN_DEGREE;
 	private final Set<String> BROKEN_LINKS;
 	private final String ROOT_URL;
 	private final Crawler CRAWLER;
@@ -35,6 +36,7 @@ public class AdjacencyList {
 
 	public AdjacencyList(String rootUrl, Crawler crawler){
 		ADJACENCY = new HashMap<String, Set<String>>();
+		IN_DEGREE = new HashMap<String, Integer>();
 		BROKEN_LINKS = new HashSet<String>();
 		ROOT_URL = rootUrl;
 		CRAWLER = crawler;
@@ -253,13 +255,43 @@ public class AdjacencyList {
 	 */
 	public void addEdge(String vertex, String edge){
 		synchronized(ADJACENCY){
+			boolean added;
 			if(!(ADJACENCY.containsKey(vertex))){
 				Set<String> edgeList = new HashSet<String>();
-				edgeList.add(edge);
+				added = edgeList.add(edge);
 				ADJACENCY.put(vertex, edgeList);
 			}else{
-				ADJACENCY.get(vertex).add(edge);
+				added = ADJACENCY.get(vertex).add(edge);
 			}
+			// Keep a running count of distinct incoming links
+			if(added){
+				Integer count = IN_DEGREE.get(edge);
+				IN_DEGREE.put(edge, count == null ? 1 : count + 1);
+			}
+		}
+	}
+
+	/**
+	 * Add an edge from vertex to each of edges, taking the lock once
+	 * @param String vertex
+	 * @param List<String> edges
+	 */
+	public void addEdges(String vertex, List<String> edges){
+		synchronized(ADJACENCY){
+			for(String edge : edges)
+				addEdge(vertex, edge);
+		}
+	}
+
+	/**
+	 * Number of distinct vertices found linking to vertex so far
+	 * @param String vertex
+	 * @return int
+	 */
+	public int inDegree(String vertex){
+		synchronized(ADJACENCY){
+			Integer count = IN_DEGREE.get(vertex);
+			return count == null ? 0 : count;
 		}
 	}
 
@@ -0,0 +1,132 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size, off-heap Bloom filter for seen URLs.
+ * 
+ * The bit array lives in a direct ByteBuffer and is updated with
+ * CAS on 64-bit words, so memory use is set up front by the expected
+ * capacity and false-positive rate and never grows with the crawl.
+ * 
+ * A filter past its capacity reports more and more false positives.
+ * To keep admission exact, an optional exact store journals every new
+ * URL, and once the filter is near capacity a "maybe seen" answer is
+ * confirmed against that store instead of being trusted.
+ */
+public class BloomSeenUrlSet implements SeenUrlSet {
+
+	private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final long SEED_1 = 0x1b873593L;
+	private static final long SEED_2 = 0xcc9e2d51L;
+	private static final long MAX_BYTES = Integer.MAX_VALUE & ~7L;
+
+	// Instance variables **************
+	private final ByteBuffer BITS;
+	private final long BIT_COUNT;
+	private final int HASHES;
+	private final long FALLBACK_AT;
+	private final SeenUrlSet EXACT;
+	private final AtomicLong inserted = new AtomicLong();
+
+	/**
+	 * @param long capacity, expected number of URLs
+	 * @param double fpp, false-positive rate at capacity
+	 * @param double fallback, fraction of capacity after which positives are checked against exact
+	 * @param SeenUrlSet exact store, or null to rely on the filter alone
+	 */
+	public BloomSeenUrlSet(long capacity, double fpp, double fallback, SeenUrlSet exact){
+		capacity = Math.max(capacity, 1);
+		fpp = Math.min(Math.max(fpp, 1e-9), 0.5);
+
+		// m = -n ln(p) / ln(2)^2, rounded up to whole words
+		long bits = (long)Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		long bytes = Math.min(((bits + 63) >>> 6) << 3, MAX_BYTES);
+		if(bytes == MAX_BYTES)
+			System.out.println("Bloom filter capped at " + (MAX_BYTES >>> 20) + "MB, false-positive rate will be higher than requested");
+		BIT_COUNT = bytes << 3;
+		// k = m/n ln(2)
+		HASHES = Math.max(1, (int)Math.round((double)BIT_COUNT / capacity * Math.log(2)));
+		FALLBACK_AT = (long)(capacity * fallback);
+		EXACT = exact;
+		BITS = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public boolean add(String url) {
+		long h1 = Hashing.hash64(url, SEED_1);
+		long h2 = Hashing.hash64(url, SEED_2) | 1;
+
+		boolean flipped = false;
+		for(int i = 0; i < HASHES; i++){
+			if(setBit(Math.floorMod(h1 + i * h2, BIT_COUNT)))
+				flipped = true;
+		}
+
+		if(flipped){
+			// At least one bit was clear, so definitely new to the filter
+			inserted.incrementAndGet();
+			return EXACT == null ? true : EXACT.add(url);
+		}
+		// Every bit already set, either seen before or a false positive
+		if(EXACT != null && inserted.get() >= FALLBACK_AT)
+			return EXACT.add(url);
+		return false;
+	}
+
+	@Override
+	public boolean contains(String url) {
+		long h1 = Hashing.hash64(url, SEED_1);
+		long h2 = Hashing.hash64(url, SEED_2) | 1;
+		for(int i = 0; i < HASHES; i++){
+			if(!getBit(Math.floorMod(h1 + i * h2, BIT_COUNT)))
+				return false;
+		}
+		if(EXACT != null && inserted.get() >= FALLBACK_AT)
+			return EXACT.contains(url);
+		return true;
+	}
+
+	@Override
+	public long size() {
+		return EXACT == null ? inserted.get() : EXACT.size();
+	}
+
+	@Override
+	public void close() {
+		if(EXACT != null)
+			EXACT.close();
+	}
+
+	/**
+	 * @param long bit
+	 * @return true if this call changed the bit from 0 to 1
+	 */
+	private boolean setBit(long bit){
+		int offset = (int)((bit >>> 6) << 3);
+		long mask = 1L << (bit & 63);
+		while(true){
+			long word = (long)WORDS.getVolatile(BITS, offset);
+			if((word & mask) != 0)
+				return false;
+			if(WORDS.compareAndSet(BITS, offset, word, word | mask))
+				return true;
+		}
+	}
+
+	private boolean getBit(long bit){
+		long word = (long)WORDS.getVolatile(BITS, (int)((bit >>> 6) << 3));
+		return (word & (1L << (bit & 63))) != 0;
+	}
+
+}//************** END BloomSeenUrlSet **************
@@ -0,0 +1,46 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact seen-URL store backed by a ConcurrentHashMap key set.
+ * Check-and-insert is a single putIfAbsent, so admission is
+ * constant time and only contends on the hash bin being written.
+ */
+public class ConcurrentSeenUrlSet implements SeenUrlSet {
+
+	// Instance variables **************
+	private final Set<String> SEEN;
+
+	public ConcurrentSeenUrlSet(int initialCapacity){
+		SEEN = ConcurrentHashMap.newKeySet(initialCapacity);
+	}
+
+	@Override
+	public boolean add(String url) {
+		return SEEN.add(url);
+	}
+
+	@Override
+	public boolean contains(String url) {
+		return SEEN.contains(url);
+	}
+
+	@Override
+	public long size() {
+		return SEEN.size();
+	}
+
+	@Override
+	public void close() {
+		SEEN.clear();
+	}
+
+}//************** END ConcurrentSeenUrlSet **************
@@ -0,0 +1,282 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact seen-URL store kept on disk rather than the heap.
+ * 
+ * URLs are appended to a single log file, and located through
+ * open addressing hash tables held in memory-mapped slot files.
+ * Each slot is [64-bit hash][log offset + 1], so only a full hash
+ * match ever costs a read of the log. The table is split into
+ * partitions by the top bits of the hash, each with its own lock,
+ * so concurrent inserts rarely contend.
+ */
+public class DiskSeenUrlSet implements SeenUrlSet {
+
+	private static final long SEED = 0x5eedL;
+	private static final int PARTITION_BITS = 6;
+	private static final int SLOT_BYTES = 16;
+	// 2^26 slots * 16 bytes keeps each mapping at 1GB
+	private static final int MAX_SLOTS = 1 << 26;
+	private static final double MAX_LOAD = 0.7;
+
+	// Instance variables **************
+	private final File DIRECTORY;
+	private final RandomAccessFile LOG_FILE;
+	private final FileChannel LOG;
+	private final Partition[] PARTITIONS;
+	private final AtomicLong logEnd = new AtomicLong();
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * @param File directory to keep the store files in, created if missing
+	 * @param long expected number of URLs, used to size the slot files
+	 * @throws IOException
+	 */
+	public DiskSeenUrlSet(File directory, long capacity) throws IOException{
+		DIRECTORY = directory;
+		if(!DIRECTORY.exists() && !DIRECTORY.mkdirs())
+			throw new IOException("Unable to create seen-URL directory " + DIRECTORY);
+
+		File log = new File(DIRECTORY, "urls");
+		log.delete();
+		LOG_FILE = new RandomAccessFile(log, "rw");
+		LOG = LOG_FILE.getChannel();
+
+		int partitions = 1 << PARTITION_BITS;
+		long perPartition = (long)(capacity / MAX_LOAD) / partitions;
+		int slots = 1024;
+		while(slots < perPartition && slots < MAX_SLOTS)
+			slots <<= 1;
+
+		PARTITIONS = new Partition[partitions];
+		for(int i = 0; i < partitions; i++)
+			PARTITIONS[i] = new Partition(i, slots);
+	}
+
+	@Override
+	public boolean add(String url) {
+		long hash = slotHash(url);
+		Partition partition = PARTITIONS[(int)(hash >>> (64 - PARTITION_BITS))];
+		try {
+			synchronized(partition){
+				byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+				int slot = partition.find(hash, bytes);
+				if(partition.isOccupied(slot))
+					return false;
+				partition.put(slot, hash, append(bytes));
+				count.incrementAndGet();
+				return true;
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Disk seen-URL store failed: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public boolean contains(String url) {
+		long hash = slotHash(url);
+		Partition partition = PARTITIONS[(int)(hash >>> (64 - PARTITION_BITS))];
+		try {
+			synchronized(partition){
+				return partition.isOccupied(partition.find(hash, url.getBytes(StandardCharsets.UTF_8)));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Disk seen-URL store failed: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public long size() {
+		return count.get();
+	}
+
+	/**
+	 * Close and delete the store files
+	 */
+	@Override
+	public void close() {
+		for(Partition partition : PARTITIONS){
+			synchronized(partition){
+				partition.release();
+			}
+		}
+		try {
+			LOG.close();
+			LOG_FILE.close();
+		} catch (IOException e) {}
+		new File(DIRECTORY, "urls").delete();
+	}
+
+	/**
+	 * Hash used to pick the partition and slot, never 0 since
+	 * 0 marks an empty slot
+	 * @param String url
+	 * @return long
+	 */
+	private long slotHash(String url){
+		long hash = Hashing.hash64(url, SEED);
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Append a [length][bytes] record to the log
+	 * @param byte[] bytes
+	 * @return long offset of the record
+	 * @throws IOException
+	 */
+	private long append(byte[] bytes) throws IOException{
+		ByteBuffer record = ByteBuffer.allocate(4 + bytes.length);
+		record.putInt(bytes.length).put(bytes).flip();
+		long offset = logEnd.getAndAdd(record.remaining());
+		long position = offset;
+		while(record.hasRemaining())
+			position += LOG.write(record, position);
+		return offset;
+	}
+
+	/**
+	 * Compare the record at offset to bytes
+	 * @param long offset
+	 * @param byte[] bytes
+	 * @return boolean
+	 * @throws IOException
+	 */
+	private boolean matches(long offset, byte[] bytes) throws IOException{
+		ByteBuffer record = ByteBuffer.allocate(4 + bytes.length);
+		long position = offset;
+		while(record.hasRemaining()){
+			int read = LOG.read(record, position);
+			if(read < 0)
+				return false;
+			position += read;
+		}
+		record.flip();
+		if(record.getInt() != bytes.length)
+			return false;
+		byte[] stored = new byte[bytes.length];
+		record.get(stored);
+		return Arrays.equals(stored, bytes);
+	}
+
+	/**
+	 * One memory-mapped open addressing table
+	 */
+	private class Partition {
+
+		private final int id;
+		private int generation = 0;
+		private int slots;
+		private int used = 0;
+		private File file;
+		private RandomAccessFile raf;
+		private MappedByteBuffer table;
+
+		Partition(int id, int slots) throws IOException{
+			this.id = id;
+			map(slots);
+		}
+
+		/**
+		 * Map a fresh, zeroed slot file of the given size
+		 * @param int slots
+		 * @throws IOException
+		 */
+		private void map(int slots) throws IOException{
+			this.slots = slots;
+			file = new File(DIRECTORY, "slots-" + id + "." + generation++);
+			file.delete();
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength((long)slots * SLOT_BYTES);
+			table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)slots * SLOT_BYTES);
+		}
+
+		/**
+		 * Linear probe for the slot holding bytes, or the
+		 * empty slot it would be inserted at
+		 * @param long hash
+		 * @param byte[] bytes
+		 * @return int slot
+		 * @throws IOException
+		 */
+		int find(long hash, byte[] bytes) throws IOException{
+			int mask = slots - 1;
+			int slot = (int)hash & mask;
+			while(true){
+				long stored = table.getLong(slot * SLOT_BYTES);
+				if(stored == 0)
+					return slot;
+				if(stored == hash && matches(table.getLong(slot * SLOT_BYTES + 8) - 1, bytes))
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		boolean isOccupied(int slot){
+			return table.getLong(slot * SLOT_BYTES) != 0;
+		}
+
+		void put(int slot, long hash, long offset) throws IOException{
+			table.putLong(slot * SLOT_BYTES, hash);
+			table.putLong(slot * SLOT_BYTES + 8, offset + 1);
+			used++;
+			if(used > slots * MAX_LOAD){
+				if(slots < MAX_SLOTS)
+					grow();
+				else if(used >= slots - 1)
+					throw new IOException("partition " + id + " is full");
+			}
+		}
+
+		/**
+		 * Double the table, rehashing from the stored hashes
+		 * so the log never has to be read back
+		 * @throws IOException
+		 */
+		private void grow() throws IOException{
+			MappedByteBuffer old = table;
+			int oldSlots = slots;
+			RandomAccessFile oldRaf = raf;
+			File oldFile = file;
+
+			map(oldSlots << 1);
+			int mask = slots - 1;
+			for(int i = 0; i < oldSlots; i++){
+				long hash = old.getLong(i * SLOT_BYTES);
+				if(hash == 0)
+					continue;
+				int slot = (int)hash & mask;
+				while(table.getLong(slot * SLOT_BYTES) != 0)
+					slot = (slot + 1) & mask;
+				table.putLong(slot * SLOT_BYTES, hash);
+				table.putLong(slot * SLOT_BYTES + 8, old.getLong(i * SLOT_BYTES + 8));
+			}
+			oldRaf.close();
+			oldFile.delete();
+		}
+
+		void release(){
+			try {
+				raf.close();
+			} catch (IOException e) {}
+			file.delete();
+		}
+
+	}
+
+}//************** END DiskSeenUrlSet **************
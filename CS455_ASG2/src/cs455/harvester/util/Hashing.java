@@ -0,0 +1,80 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+/**
+ * Allocation free 64-bit hashing of character data,
+ * used by the probabilistic and disk backed URL stores.
+ */
+public final class Hashing {
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+	// Exists only to defeat instantiation
+	private Hashing() {
+	}
+
+	/**
+	 * FNV-1a over the UTF-16 chars of s, finished with the
+	 * murmur3 mixer so every output bit depends on every input bit
+	 * @param CharSequence s
+	 * @param long seed
+	 * @return long hash
+	 */
+	public static long hash64(CharSequence s, long seed){
+		return hash64(s, 0, s.length(), seed);
+	}
+
+	/**
+	 * Same as hash64(CharSequence, long) over s[start, end)
+	 * @param CharSequence s
+	 * @param int start
+	 * @param int end
+	 * @param long seed
+	 * @return long hash
+	 */
+	public static long hash64(CharSequence s, int start, int end, long seed){
+		long h = seed ^ ((end - start) * GOLDEN);
+		for(int i = start; i < end; i++){
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Same as hash64(CharSequence, long) over the bytes of data,
+	 * e.g. to fingerprint a page body
+	 * @param byte[] data
+	 * @param long seed
+	 * @return long hash
+	 */
+	public static long hash64(byte[] data, long seed){
+		long h = seed ^ (data.length * GOLDEN);
+		for(int i = 0; i < data.length; i++){
+			h ^= data[i] & 0xFF;
+			h *= FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * murmur3 fmix64 finalizer
+	 * @param long h
+	 * @return long
+	 */
+	public static long mix(long h){
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}//************** END Hashing **************
@@ -0,0 +1,110 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most recent capacity page fingerprints, searched for any
+ * within a Hamming distance of a new one.
+ * 
+ * Fingerprints are split into distance + 1 bands. Two fingerprints
+ * differing in at most distance bits must agree exactly on at least
+ * one band, so each band is indexed by value and only fingerprints
+ * sharing a band with the new one are compared, rather than all of
+ * them. Once full, the oldest fingerprint is dropped for each one added.
+ */
+public class NearDuplicateIndex {
+
+	// Instance variables **************
+	private final int DISTANCE;
+	private final int[] BAND_SHIFT;
+	private final long[] BAND_MASK;
+	private final List<Map<Long, List<Long>>> BANDS;
+	private final long[] RECENT;
+	private int next = 0;
+	private int size = 0;
+
+	/**
+	 * @param int distance, most bits a near-duplicate may differ in, 0 to 7
+	 * @param int capacity, fingerprints kept
+	 */
+	public NearDuplicateIndex(int distance, int capacity){
+		DISTANCE = Math.max(0, Math.min(distance, 7));
+		int bands = DISTANCE + 1;
+		BAND_SHIFT = new int[bands];
+		BAND_MASK = new long[bands];
+		BANDS = new ArrayList<Map<Long, List<Long>>>(bands);
+		int shift = 0;
+		for(int band = 0; band < bands; band++){
+			int width = (64 - shift) / (bands - band);
+			BAND_SHIFT[band] = shift;
+			BAND_MASK[band] = width == 64 ? -1L : (1L << width) - 1;
+			BANDS.add(new HashMap<Long, List<Long>>());
+			shift += width;
+		}
+		RECENT = new long[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Look for a fingerprint near this one, adding it if there is none
+	 * @param long fingerprint
+	 * @return true if a near-duplicate was already indexed
+	 */
+	public synchronized boolean addIfNew(long fingerprint){
+		for(int band = 0; band < BAND_SHIFT.length; band++){
+			List<Long> candidates = BANDS.get(band).get(bandOf(fingerprint, band));
+			if(candidates == null)
+				continue;
+			for(int i = 0; i < candidates.size(); i++){
+				if(Long.bitCount(candidates.get(i) ^ fingerprint) <= DISTANCE)
+					return true;
+			}
+		}
+		if(size == RECENT.length)
+			remove(RECENT[next]);
+		else
+			size++;
+		RECENT[next] = fingerprint;
+		next = (next + 1) % RECENT.length;
+		for(int band = 0; band < BAND_SHIFT.length; band++){
+			Long key = bandOf(fingerprint, band);
+			List<Long> members = BANDS.get(band).get(key);
+			if(members == null){
+				members = new ArrayList<Long>(2);
+				BANDS.get(band).put(key, members);
+			}
+			members.add(fingerprint);
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of fingerprints indexed
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+	private void remove(long fingerprint){
+		for(int band = 0; band < BAND_SHIFT.length; band++){
+			Long key = bandOf(fingerprint, band);
+			List<Long> members = BANDS.get(band).get(key);
+			members.remove(Long.valueOf(fingerprint));
+			if(members.isEmpty())
+				BANDS.get(band).remove(key);
+		}
+	}
+
+	private long bandOf(long fingerprint, int band){
+		return (fingerprint >>> BAND_SHIFT[band]) & BAND_MASK[band];
+	}
+
+}//************** END NearDuplicateIndex **************
@@ -0,0 +1,246 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.util.Locale;
+
+/**
+ * Which Crawler owns a URL, by host and path prefix.
+ * 
+ * Rules are "host[:port][/path]", e.g. www.cs.colostate.edu for a
+ * whole site or www.colostate.edu/Depts/Psychology for one part of
+ * one. Hosts are kept in an open addressed hash table, each with a
+ * trie of path segments below it, and the longest prefix with an
+ * owner wins. A lookup hashes the URL's host where it lies in the
+ * string and walks at most one trie node per path segment, so its
+ * cost doesn't grow with the number of Crawlers and nothing is
+ * allocated. Hosts and paths match ignoring case, and a prefix only
+ * matches whole segments.
+ */
+public class RoutingTable {
+
+	// Instance variables **************
+	private Host[] table = new Host[16];
+	private int hosts = 0;
+
+	/**
+	 * Hash bucket for one host, with its path trie
+	 */
+	private static final class Host {
+		final String authority;
+		final long hash;
+		final PathNode root = new PathNode(null);
+
+		Host(String authority, long hash){
+			this.authority = authority;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * One path segment below a host
+	 */
+	private static final class PathNode {
+		final String segment;
+		String owner;
+		PathNode[] children = new PathNode[0];
+
+		PathNode(String segment){
+			this.segment = segment;
+		}
+
+		PathNode child(CharSequence s, int start, int end){
+			for(PathNode child : children){
+				if(equalsIgnoreCase(child.segment, s, start, end))
+					return child;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Give owner every URL under rule, replacing any owner it had
+	 * @param String rule, host[:port][/path], a leading scheme is ignored
+	 * @param String owner
+	 */
+	public void add(String rule, String owner){
+		String spec = stripScheme(rule.trim());
+		int slash = spec.indexOf('/');
+		String authority = hostOf(spec);
+		if(authority.isEmpty())
+			throw new IllegalArgumentException("No host in routing rule " + rule);
+
+		Host host = find(authority, 0, authority.length(), hash(authority, 0, authority.length()));
+		if(host == null)
+			host = insert(authority);
+		PathNode node = host.root;
+		if(slash >= 0){
+			for(String segment : spec.substring(slash + 1).split("/")){
+				if(segment.isEmpty())
+					continue;
+				PathNode child = node.child(segment, 0, segment.length());
+				if(child == null){
+					child = new PathNode(segment);
+					PathNode[] children = new PathNode[node.children.length + 1];
+					System.arraycopy(node.children, 0, children, 0, node.children.length);
+					children[node.children.length] = child;
+					node.children = children;
+				}
+				node = child;
+			}
+		}
+		node.owner = owner;
+	}
+
+	/**
+	 * @param CharSequence url, absolute
+	 * @return owner of the longest rule matching url, null if none does
+	 */
+	public String route(CharSequence url){
+		int length = url.length();
+		int start = indexOf(url, "://");
+		start = start < 0 ? 0 : start + 3;
+		int end = start;
+		while(end < length){
+			char c = url.charAt(end);
+			if(c == '/' || c == '?' || c == '#')
+				break;
+			// Skip any user info
+			if(c == '@')
+				start = end + 1;
+			end++;
+		}
+		int pathStart = end;
+		if(endsWith(url, start, end, ":80"))
+			end -= 3;
+		else if(endsWith(url, start, end, ":443"))
+			end -= 4;
+
+		Host host = find(url, start, end, hash(url, start, end));
+		if(host == null)
+			return null;
+		PathNode node = host.root;
+		String owner = node.owner;
+		int i = pathStart;
+		while(i < length && url.charAt(i) == '/'){
+			int segment = ++i;
+			while(i < length && url.charAt(i) != '/' && url.charAt(i) != '?' && url.charAt(i) != '#')
+				i++;
+			if(i == segment)
+				continue;
+			node = node.child(url, segment, i);
+			if(node == null)
+				break;
+			if(node.owner != null)
+				owner = node.owner;
+		}
+		return owner;
+	}
+
+	/**
+	 * @param String url, e.g. http://www.cs.colostate.edu/cstop/index.html
+	 * @return its host[:port] in lower case, e.g. www.cs.colostate.edu
+	 */
+	public static String hostOf(String url){
+		String spec = stripScheme(url.trim());
+		int slash = spec.indexOf('/');
+		String authority = slash < 0 ? spec : spec.substring(0, slash);
+		if(authority.endsWith(":80"))
+			authority = authority.substring(0, authority.length() - 3);
+		else if(authority.endsWith(":443"))
+			authority = authority.substring(0, authority.length() - 4);
+		return authority.toLowerCase(Locale.ROOT);
+	}
+
+	private static String stripScheme(String url){
+		int scheme = url.indexOf("://");
+		return scheme < 0 ? url : url.substring(scheme + 3);
+	}
+
+	private Host find(CharSequence s, int start, int end, long hash){
+		int mask = table.length - 1;
+		for(int slot = (int) hash & mask; table[slot] != null; slot = (slot + 1) & mask){
+			Host host = table[slot];
+			if(host.hash == hash && equalsIgnoreCase(host.authority, s, start, end))
+				return host;
+		}
+		return null;
+	}
+
+	private Host insert(String authority){
+		if((hosts + 1) * 2 > table.length){
+			Host[] old = table;
+			table = new Host[old.length * 2];
+			for(Host host : old){
+				if(host != null)
+					place(host);
+			}
+		}
+		Host host = new Host(authority, hash(authority, 0, authority.length()));
+		place(host);
+		hosts++;
+		return host;
+	}
+
+	private void place(Host host){
+		int mask = table.length - 1;
+		int slot = (int) host.hash & mask;
+		while(table[slot] != null)
+			slot = (slot + 1) & mask;
+		table[slot] = host;
+	}
+
+	/**
+	 * FNV-1a of s[start, end) with ASCII letters lower cased
+	 */
+	private static long hash(CharSequence s, int start, int end){
+		long h = 0xcbf29ce484222325L;
+		for(int i = start; i < end; i++){
+			h ^= lower(s.charAt(i));
+			h *= 0x100000001b3L;
+		}
+		return Hashing.mix(h);
+	}
+
+	private static boolean equalsIgnoreCase(String a, CharSequence s, int start, int end){
+		if(a.length() != end - start)
+			return false;
+		for(int i = 0; i < a.length(); i++){
+			if(lower(a.charAt(i)) != lower(s.charAt(start + i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static char lower(char c){
+		return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+	}
+
+	private static int indexOf(CharSequence s, String target){
+		int last = s.length() - target.length();
+		for(int i = 0; i <= last; i++){
+			int j = 0;
+			while(j < target.length() && s.charAt(i + j) == target.charAt(j))
+				j++;
+			if(j == target.length())
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean endsWith(CharSequence s, int start, int end, String suffix){
+		int from = end - suffix.length();
+		if(from < start)
+			return false;
+		for(int i = 0; i < suffix.length(); i++){
+			if(s.charAt(from + i) != suffix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+}//************** END RoutingTable **************
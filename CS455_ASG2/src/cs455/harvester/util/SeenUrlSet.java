@@ -0,0 +1,33 @@
+package cs455.harvester.util;
+
+/**
+ * Store of every URL a Crawler has admitted for crawling.
+ * Implementations must be safe for concurrent use without
+ * any external locking.
+ */
+public interface SeenUrlSet {
+
+	/**
+	 * Atomically checks for and records url
+	 * @param String url
+	 * @return true if url was not seen before this call
+	 */
+	public boolean add(String url);
+
+	/**
+	 * @param String url
+	 * @return true if url has already been recorded
+	 */
+	public boolean contains(String url);
+
+	/**
+	 * @return number of URLs recorded
+	 */
+	public long size();
+
+	/**
+	 * Release any resources held by this store
+	 */
+	public void close();
+
+}
@@ -0,0 +1,89 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+/**
+ * Runtime tunables for the Crawler, read from JVM system properties
+ * so they can be passed on the command line without changing the
+ * [portNum] [poolSize] [rootUrl] [configPath] argument format, e.g.
+ * java -Dcs455.harvester.seen=hash cs455.harvester.Crawler ...
+ */
+public final class Settings {
+
+	// Every key is looked up under this prefix
+	public static final String PREFIX = "cs455.harvester.";
+
+	// Exists only to defeat instantiation
+	private Settings() {
+	}
+
+	/**
+	 * Returns the String value for key, or def if not set
+	 * @param String key
+	 * @param String def
+	 * @return String
+	 */
+	public static String getString(String key, String def){
+		String value = System.getProperty(PREFIX + key);
+		if(value == null || value.trim().isEmpty())
+			return def;
+		return value.trim();
+	}
+
+	/**
+	 * Returns the int value for key, or def if not set or malformed
+	 * @param String key
+	 * @param int def
+	 * @return int
+	 */
+	public static int getInt(String key, int def){
+		try{
+			return Integer.parseInt(getString(key, String.valueOf(def)));
+		}catch(NumberFormatException e){
+			return def;
+		}
+	}
+
+	/**
+	 * Returns the long value for key, or def if not set or malformed
+	 * @param String key
+	 * @param long def
+	 * @return long
+	 */
+	public static long getLong(String key, long def){
+		try{
+			return Long.parseLong(getString(key, String.valueOf(def)));
+		}catch(NumberFormatException e){
+			return def;
+		}
+	}
+
+	/**
+	 * Returns the double value for key, or def if not set or malformed
+	 * @param String key
+	 * @param double def
+	 * @return double
+	 */
+	public static double getDouble(String key, double def){
+		try{
+			return Double.parseDouble(getString(key, String.valueOf(def)));
+		}catch(NumberFormatException e){
+			return def;
+		}
+	}
+
+	/**
+	 * Returns the boolean value for key, or def if not set
+	 * @param String key
+	 * @param boolean def
+	 * @return boolean
+	 */
+	public static boolean getBoolean(String key, boolean def){
+		return Boolean.parseBoolean(getString(key, String.valueOf(def)));
+	}
+
+}//************** END Settings **************
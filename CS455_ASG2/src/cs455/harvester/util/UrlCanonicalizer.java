@@ -0,0 +1,215 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rewrites absolute URLs into one canonical form, so that addresses
+ * for the same page are only admitted, and fetched, once. Each rule
+ * can be turned off with a Settings key:
+ * 
+ * canon.fragment (true)   drop the #fragment
+ * canon.host (true)       lower case scheme and host, drop the default
+ *                         port, give an empty path as "/"
+ * canon.index             last path segments meaning the directory,
+ *                         default "index.html,index.htm"
+ * canon.slash (false)     drop a trailing '/', off by default as most
+ *                         servers answer that with a redirect
+ * canon.sortQuery (true)  sort query parameters
+ * canon.dropParams        query and path (;name=) parameters to drop,
+ *                         a trailing '*' matches a prefix. Default
+ *                         "utm_*,gclid,fbclid,jsessionid,phpsessid,sid,sessionid"
+ * 
+ * canon=false turns canonicalization off altogether.
+ */
+public class UrlCanonicalizer {
+
+	// Instance variables **************
+	private final boolean ENABLED;
+	private final boolean FRAGMENT;
+	private final boolean HOST;
+	private final boolean SLASH;
+	private final boolean SORT_QUERY;
+	private final String[] INDEX;
+	private final String[] DROP_PARAMS;
+
+	/**
+	 * Canonicalizer configured from Settings
+	 */
+	public UrlCanonicalizer(){
+		ENABLED = Settings.getBoolean("canon", true);
+		FRAGMENT = Settings.getBoolean("canon.fragment", true);
+		HOST = Settings.getBoolean("canon.host", true);
+		SLASH = Settings.getBoolean("canon.slash", false);
+		SORT_QUERY = Settings.getBoolean("canon.sortQuery", true);
+		INDEX = split(Settings.getString("canon.index", "index.html,index.htm"));
+		DROP_PARAMS = split(Settings.getString("canon.dropParams", "utm_*,gclid,fbclid,jsessionid,phpsessid,sid,sessionid"));
+	}
+
+	/**
+	 * @param String url, absolute and without dot segments
+	 * @return String canonical form of url, url itself if nothing changed
+	 */
+	public String canonicalize(String url){
+		if(!ENABLED || url == null)
+			return url;
+		int length = url.length();
+		int fragment = url.indexOf('#');
+		int end = fragment < 0 ? length : fragment;
+		int scheme = url.indexOf("://");
+		if(scheme < 0 || url.lastIndexOf('?', scheme) >= 0){
+			// Opaque, e.g. mailto:, only the fragment can go
+			return FRAGMENT && fragment >= 0 ? url.substring(0, fragment) : url;
+		}
+		int authority = scheme + 3;
+		int path = authority;
+		while(path < end && url.charAt(path) != '/' && url.charAt(path) != '?')
+			path++;
+		int query = url.indexOf('?', path);
+		if(query >= end)
+			query = -1;
+		int pathEnd = query < 0 ? end : query;
+
+		StringBuilder canonical = new StringBuilder(length);
+		if(HOST){
+			canonical.append(url, 0, authority);
+			lowerCase(canonical, 0, scheme);
+			appendAuthority(canonical, url, authority, path, url.substring(0, scheme));
+		} else {
+			canonical.append(url, 0, path);
+		}
+		appendPath(canonical, url, path, pathEnd);
+		if(query >= 0)
+			appendQuery(canonical, url, query + 1, end);
+		if(!FRAGMENT && fragment >= 0)
+			canonical.append(url, fragment, length);
+
+		return canonical.length() == length && url.contentEquals(canonical) ? url : canonical.toString();
+	}
+
+	/**
+	 * Host in lower case without the scheme's default port, user info as is
+	 */
+	private void appendAuthority(StringBuilder canonical, String url, int start, int end, String scheme){
+		int host = url.lastIndexOf('@', end - 1);
+		host = host < start ? start : host + 1;
+		int port = url.lastIndexOf(':', end - 1);
+		// Not a port if inside an IPv6 literal
+		if(port < host || url.lastIndexOf(']', end - 1) > port)
+			port = end;
+		String number = url.substring(Math.min(port + 1, end), end);
+		boolean defaultPort = number.isEmpty()
+				|| (number.equals("80") && scheme.equalsIgnoreCase("http"))
+				|| (number.equals("443") && scheme.equalsIgnoreCase("https"));
+		canonical.append(url, start, host);
+		int from = canonical.length();
+		canonical.append(url, host, port);
+		lowerCase(canonical, from, canonical.length());
+		if(!defaultPort)
+			canonical.append(url, port, end);
+	}
+
+	private void appendPath(StringBuilder canonical, String url, int start, int end){
+		int from = canonical.length();
+		// Path parameters, e.g. ;jsessionid=...
+		int segment = start;
+		while(segment < end){
+			int next = url.indexOf('/', segment + 1);
+			if(next < 0 || next > end)
+				next = end;
+			int parameter = url.indexOf(';', segment);
+			if(parameter < 0 || parameter > next){
+				canonical.append(url, segment, next);
+			} else {
+				canonical.append(url, segment, parameter);
+				while(parameter < next){
+					int stop = url.indexOf(';', parameter + 1);
+					if(stop < 0 || stop > next)
+						stop = next;
+					if(!dropped(url, parameter + 1, stop))
+						canonical.append(url, parameter, stop);
+					parameter = stop;
+				}
+			}
+			segment = next;
+		}
+		if(HOST && canonical.length() == from)
+			canonical.append('/');
+
+		int lastSlash = canonical.lastIndexOf("/");
+		if(lastSlash >= from){
+			for(String index : INDEX){
+				if(canonical.length() - lastSlash - 1 == index.length()
+						&& canonical.substring(lastSlash + 1).equalsIgnoreCase(index)){
+					canonical.setLength(lastSlash + 1);
+					break;
+				}
+			}
+		}
+		if(SLASH && canonical.length() - from > 1 && canonical.charAt(canonical.length() - 1) == '/')
+			canonical.setLength(canonical.length() - 1);
+	}
+
+	private void appendQuery(StringBuilder canonical, String url, int start, int end){
+		List<String> parameters = new ArrayList<String>();
+		int parameter = start;
+		while(parameter <= end){
+			int stop = url.indexOf('&', parameter);
+			if(stop < 0 || stop > end)
+				stop = end;
+			if(stop > parameter && !dropped(url, parameter, stop))
+				parameters.add(url.substring(parameter, stop));
+			parameter = stop + 1;
+		}
+		if(parameters.isEmpty())
+			return;
+		if(SORT_QUERY)
+			Collections.sort(parameters);
+		canonical.append('?');
+		for(int i = 0; i < parameters.size(); i++){
+			if(i > 0)
+				canonical.append('&');
+			canonical.append(parameters.get(i));
+		}
+	}
+
+	/**
+	 * @return true if the name of the parameter in url[start, end) is in DROP_PARAMS
+	 */
+	private boolean dropped(String url, int start, int end){
+		int equals = url.indexOf('=', start);
+		int nameEnd = equals < 0 || equals > end ? end : equals;
+		int nameLength = nameEnd - start;
+		for(String drop : DROP_PARAMS){
+			if(drop.endsWith("*")){
+				if(nameLength >= drop.length() - 1 && url.regionMatches(true, start, drop, 0, drop.length() - 1))
+					return true;
+			} else if(nameLength == drop.length() && url.regionMatches(true, start, drop, 0, nameLength)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void lowerCase(StringBuilder s, int start, int end){
+		for(int i = start; i < end; i++)
+			s.setCharAt(i, Character.toLowerCase(s.charAt(i)));
+	}
+
+	private static String[] split(String list){
+		List<String> values = new ArrayList<String>();
+		for(String value : list.split(",")){
+			if(!value.trim().isEmpty())
+				values.add(value.trim());
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+}//************** END UrlCanonicalizer **************
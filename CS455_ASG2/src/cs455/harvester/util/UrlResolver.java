@@ -0,0 +1,271 @@
+/**
+ * @author Shaun Parkison (shaunpa)
+ * Colorado State University
+ * CS455 - Dist. Systems
+ */
+
+package cs455.harvester.util;
+
+/**
+ * Resolves links against the page they were found on and removes
+ * dot segments, in place of java.net.URI parsing plus string splicing.
+ * The reference is scanned once to validate it and find its parts, the
+ * result is assembled in a per thread char buffer, and the only object
+ * made is the returned String.
+ * 
+ * Resolution follows RFC 3986 section 5.2. References java.net.URI
+ * would reject (spaces, unescaped quotes or braces, bad % escapes, a
+ * second '#') give null. Scheme and host case are left alone.
+ */
+public final class UrlResolver {
+
+	// Offsets found by parse(), -1 if the part is missing
+	private static final int SCHEME = 0;
+	private static final int AUTHORITY = 1;
+	private static final int PATH = 2;
+	private static final int QUERY = 3;
+	private static final int FRAGMENT = 4;
+
+	// Printable ASCII allowed unescaped anywhere in a URI reference
+	private static final boolean[] LEGAL = new boolean[128];
+
+	static {
+		for(char c = 'a'; c <= 'z'; c++)
+			LEGAL[c] = true;
+		for(char c = 'A'; c <= 'Z'; c++)
+			LEGAL[c] = true;
+		for(char c = '0'; c <= '9'; c++)
+			LEGAL[c] = true;
+		for(char c : "-_.!~*'();/?:@&=+$,".toCharArray())
+			LEGAL[c] = true;
+	}
+
+	// Per thread output buffer and part offsets
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	private static final class Scratch {
+		char[] buffer = new char[512];
+		final int[] base = new int[5];
+		final int[] ref = new int[5];
+	}
+
+	// Exists only to defeat instantiation
+	private UrlResolver() {
+	}
+
+	/**
+	 * Resolve ref against base
+	 * @param CharSequence base, an absolute URL, may be null if ref is absolute
+	 * @param CharSequence ref, absolute or relative
+	 * @return String absolute URL without dot segments, null if either is malformed
+	 */
+	public static String resolve(CharSequence base, CharSequence ref){
+		if(ref == null)
+			return null;
+		Scratch scratch = SCRATCH.get();
+		int[] r = scratch.ref;
+		if(!parse(ref, r))
+			return null;
+		int refLength = ref.length();
+
+		// Absolute reference: only the path needs cleaning up
+		if(r[SCHEME] >= 0 || base == null){
+			if(r[SCHEME] >= 0 && r[AUTHORITY] < 0 && (r[PATH] == refLength || ref.charAt(r[PATH]) != '/'))
+				return ref.toString(); // Opaque, e.g. mailto:
+			char[] out = buffer(scratch, refLength + 1);
+			int n = copy(ref, 0, r[PATH], out, 0);
+			int pathEnd = partEnd(r, PATH, refLength);
+			int end = copy(ref, r[PATH], pathEnd, out, n);
+			n = removeDotSegments(out, n, end);
+			n = copy(ref, pathEnd, refLength, out, n);
+			return new String(out, 0, n);
+		}
+
+		int[] b = scratch.base;
+		if(!parse(base, b) || b[SCHEME] < 0)
+			return null;
+		int baseLength = base.length();
+		char[] out = buffer(scratch, baseLength + refLength + 2);
+		int n;
+		int end;
+		if(r[AUTHORITY] >= 0){
+			// Network path reference, only the scheme comes from base
+			n = copy(base, 0, b[SCHEME] + 1, out, 0);
+			n = copy(ref, 0, r[PATH], out, n);
+			int pathEnd = partEnd(r, PATH, refLength);
+			end = copy(ref, r[PATH], pathEnd, out, n);
+			n = removeDotSegments(out, n, end);
+			return new String(out, 0, copy(ref, pathEnd, refLength, out, n));
+		}
+
+		n = copy(base, 0, b[PATH], out, 0);
+		int refPathEnd = partEnd(r, PATH, refLength);
+		int basePathEnd = partEnd(b, PATH, baseLength);
+		if(refPathEnd == r[PATH]){
+			// Empty path: base path, and base query unless ref has its own
+			end = copy(base, b[PATH], basePathEnd, out, n);
+			n = removeDotSegments(out, n, end);
+			if(r[QUERY] < 0 && b[QUERY] >= 0)
+				n = copy(base, b[QUERY], partEnd(b, QUERY, baseLength), out, n);
+			return new String(out, 0, copy(ref, r[PATH], refLength, out, n));
+		}
+		if(ref.charAt(r[PATH]) == '/'){
+			end = copy(ref, r[PATH], refPathEnd, out, n);
+		} else {
+			// Merge with everything up to the last '/' of the base path
+			int slash = basePathEnd - 1;
+			while(slash >= b[PATH] && base.charAt(slash) != '/')
+				slash--;
+			if(slash < b[PATH]){
+				end = n;
+				if(b[AUTHORITY] >= 0)
+					out[end++] = '/';
+			} else {
+				end = copy(base, b[PATH], slash + 1, out, n);
+			}
+			end = copy(ref, r[PATH], refPathEnd, out, end);
+		}
+		n = removeDotSegments(out, n, end);
+		return new String(out, 0, copy(ref, refPathEnd, refLength, out, n));
+	}
+
+	/**
+	 * Remove dot segments from an absolute URL
+	 * @param CharSequence url
+	 * @return String, null if url is malformed
+	 */
+	public static String normalize(CharSequence url){
+		return resolve(null, url);
+	}
+
+	/**
+	 * Validate s and record where each of its parts starts
+	 * @return false if java.net.URI would reject s
+	 */
+	private static boolean parse(CharSequence s, int[] parts){
+		int length = s.length();
+		parts[SCHEME] = -1;
+		parts[AUTHORITY] = -1;
+		parts[QUERY] = -1;
+		parts[FRAGMENT] = -1;
+
+		int i = 0;
+		if(length > 0 && isAlpha(s.charAt(0))){
+			i = 1;
+			while(i < length && (isAlpha(s.charAt(i)) || isDigit(s.charAt(i)) || s.charAt(i) == '+' || s.charAt(i) == '-' || s.charAt(i) == '.'))
+				i++;
+			if(i < length && s.charAt(i) == ':')
+				parts[SCHEME] = i++;
+			else
+				i = 0;
+		}
+		int authorityEnd = i;
+		if(i + 1 < length && s.charAt(i) == '/' && s.charAt(i + 1) == '/'){
+			parts[AUTHORITY] = i + 2;
+			authorityEnd = i + 2;
+			while(authorityEnd < length && s.charAt(authorityEnd) != '/' && s.charAt(authorityEnd) != '?' && s.charAt(authorityEnd) != '#')
+				authorityEnd++;
+		}
+		parts[PATH] = parts[AUTHORITY] < 0 ? i : authorityEnd;
+
+		for(; i < length; i++){
+			char c = s.charAt(i);
+			if(c == '#'){
+				if(parts[FRAGMENT] >= 0)
+					return false;
+				parts[FRAGMENT] = i;
+			} else if(c == '?'){
+				if(parts[QUERY] < 0 && parts[FRAGMENT] < 0)
+					parts[QUERY] = i;
+			} else if(c == '%'){
+				if(i + 2 >= length || Character.digit(s.charAt(i + 1), 16) < 0 || Character.digit(s.charAt(i + 2), 16) < 0)
+					return false;
+				i += 2;
+			} else if(c == '[' || c == ']'){
+				// Only for IPv6 literals
+				if(i >= authorityEnd)
+					return false;
+			} else if(c < 128 ? !LEGAL[c] : Character.isISOControl(c) || Character.isSpaceChar(c)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return int index the part starting at parts[part] ends at
+	 */
+	private static int partEnd(int[] parts, int part, int length){
+		for(int next = part + 1; next <= FRAGMENT; next++){
+			if(parts[next] >= 0)
+				return parts[next];
+		}
+		return length;
+	}
+
+	/**
+	 * Remove "." and ".." segments from the path in out[start, end),
+	 * in place, reading and writing left to right
+	 * @return int new end of the path
+	 */
+	private static int removeDotSegments(char[] out, int start, int end){
+		int read = start;
+		int write = start;
+		boolean absolute = read < end && out[read] == '/';
+		if(absolute)
+			read++;
+		boolean trailingSlash = false;
+		while(read <= end){
+			int segment = read;
+			while(read < end && out[read] != '/')
+				read++;
+			int length = read - segment;
+			boolean last = read >= end;
+			if(length == 1 && out[segment] == '.'){
+				trailingSlash = last;
+			} else if(length == 2 && out[segment] == '.' && out[segment + 1] == '.'){
+				// Drop the last segment written, if any
+				while(write > start && out[write - 1] != '/')
+					write--;
+				if(write > start)
+					write--;
+				trailingSlash = last;
+			} else {
+				if(absolute || write > start)
+					out[write++] = '/';
+				for(int i = segment; i < read; i++)
+					out[write++] = out[i];
+				trailingSlash = false;
+			}
+			read++;
+		}
+		if(trailingSlash && (write == start || out[write - 1] != '/'))
+			out[write++] = '/';
+		return write;
+	}
+
+	private static char[] buffer(Scratch scratch, int length){
+		if(scratch.buffer.length < length)
+			scratch.buffer = new char[Math.max(length, scratch.buffer.length * 2)];
+		return scratch.buffer;
+	}
+
+	private static int copy(CharSequence s, int from, int to, char[] out, int at){
+		for(int i = from; i < to; i++)
+			out[at++] = s.charAt(i);
+		return at;
+	}
+
+	private static boolean isAlpha(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+
+}//************** END UrlResolver **************
@@ -0,0 +1,136 @@
+package cs455.harvester.wireformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers the Events use to encode themselves straight into a
+ * ByteBuffer and decode straight out of one, with no streams in
+ * between. Strings go on the wire as an int byte count then their
+ * UTF-8 bytes, the same layout the stream based marshalling wrote,
+ * but always UTF-8 rather than the platform's default charset.
+ */
+public final class Codec {
+
+	// Per thread scratch space for decoding out of direct buffers
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[256];
+		}
+	};
+
+	// Exists only to defeat instantiation
+	private Codec() {
+	}
+
+	/**
+	 * Encode event into a new array of exactly its size
+	 * @param Event event
+	 * @return byte[]
+	 */
+	public static byte[] toBytes(Event event){
+		byte[] bytes = new byte[event.getEncodedLength()];
+		event.encode(ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/**
+	 * @param String s
+	 * @return bytes putString(buffer, s) writes
+	 */
+	public static int sizeOf(String s){
+		return 4 + utf8Length(s);
+	}
+
+	/**
+	 * Write s as its UTF-8 byte count then the bytes, encoding
+	 * directly into buffer
+	 * @param ByteBuffer buffer, with at least sizeOf(s) bytes remaining
+	 * @param String s
+	 */
+	public static void putString(ByteBuffer buffer, String s){
+		buffer.putInt(utf8Length(s));
+		int length = s.length();
+		for(int i = 0; i < length; i++){
+			char c = s.charAt(i);
+			if(c < 0x80){
+				buffer.put((byte) c);
+			} else if(c < 0x800){
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))){
+				int code = Character.toCodePoint(c, s.charAt(++i));
+				buffer.put((byte) (0xF0 | (code >> 18)));
+				buffer.put((byte) (0x80 | ((code >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((code >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (code & 0x3F)));
+			} else if(Character.isSurrogate(c)){
+				// Unpaired, written as '?' like String.getBytes would
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Read a string written by putString
+	 * @param ByteBuffer buffer
+	 * @return String
+	 * @throws IOException if the count runs past the end of buffer
+	 */
+	public static String getString(ByteBuffer buffer) throws IOException {
+		int length = getInt(buffer);
+		if(length < 0 || length > buffer.remaining())
+			throw new IOException("Malformed string of " + length + " bytes, " + buffer.remaining() + " remain");
+		String s;
+		if(buffer.hasArray()){
+			s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		} else {
+			byte[] scratch = SCRATCH.get();
+			if(scratch.length < length){
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+				SCRATCH.set(scratch);
+			}
+			buffer.get(buffer.position(), scratch, 0, length);
+			s = new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+
+	/**
+	 * @param ByteBuffer buffer
+	 * @return the next int in buffer
+	 * @throws IOException if fewer than four bytes remain
+	 */
+	public static int getInt(ByteBuffer buffer) throws IOException {
+		if(buffer.remaining() < 4)
+			throw new IOException("Message cut short");
+		return buffer.getInt();
+	}
+
+	private static int utf8Length(String s){
+		int length = s.length();
+		int bytes = length;
+		for(int i = 0; i < length; i++){
+			char c = s.charAt(i);
+			if(c < 0x80)
+				continue;
+			if(c < 0x800){
+				bytes++;
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))){
+				// Four bytes for the pair of chars
+				bytes += 2;
+				i++;
+			} else if(!Character.isSurrogate(c)){
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+}//************** END Codec **************
@@ -1,12 +1,7 @@
 package cs455.harvester.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class CrawlerSendsIncomplete implements Event {
 
@@ -21,48 +16,29 @@ public class CrawlerSendsIncomplete implements Event {
 	// Marshalling (packing the bytes)
 	@Override
 	public byte[] getBytes() {
-		byte[] marshalledBytes = null;
-		ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
-		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(
-				baOutputStream));
-
-		try {
-			dout.writeInt(type);
-
-			byte[] originatingUrlBytes = originatingUrl.getBytes();
-			int elementLength = originatingUrlBytes.length;
-			dout.writeInt(elementLength);
-			dout.write(originatingUrlBytes);
-
-			dout.flush();
-			marshalledBytes = baOutputStream.toByteArray();
-			baOutputStream.close();
-			dout.close();
+		return Codec.toBytes(this);
+	}
 
-		} catch (IOException e) {
-			System.out.println("Error marshalling the bytes for OverlayNodeReportsTaskFinished.");
-			e.printStackTrace();
-		}
+	@Override
+	public int getEncodedLength() {
+		return 4 + Codec.sizeOf(originatingUrl);
+	}
 
-		return marshalledBytes;
+	@Override
+	public void encode(ByteBuffer buffer) {
+		buffer.putInt(type);
+		Codec.putString(buffer, originatingUrl);
 	}
 
 	// Unmarshalling (unpack the bytes)
 	public CrawlerSendsIncomplete(byte[] marshalledBytes) throws IOException {
-		ByteArrayInputStream baInputStream = new ByteArrayInputStream(
-				marshalledBytes);
-		DataInputStream din = new DataInputStream(new BufferedInputStream(
-				baInputStream));
-
-		type = din.readInt();
-
-		int identifierLength = din.readInt();
-		byte[] identifierBytes = new byte[identifierLength];
-		din.readFully(identifierBytes);
-		originatingUrl = new String(identifierBytes);
+		this(ByteBuffer.wrap(marshalledBytes));
+	}
 
-		baInputStream.close();
-		din.close();
+	// Unmarshalling straight from buffer's position
+	public CrawlerSendsIncomplete(ByteBuffer buffer) throws IOException {
+		type = Codec.getInt(buffer);
+		originatingUrl = Codec.getString(buffer);
 	}
 
 	@Override
@@ -1,12 +1,7 @@
 package cs455.harvester.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class CrawlerSendsTask implements Event{
 
@@ -23,59 +18,31 @@ public class CrawlerSendsTask implements Event{
 	// Marshalling (packing the bytes)
 	@Override
 	public byte[] getBytes() {
-		byte[] marshalledBytes = null;
-		ByteArrayOutputStream baOutputStream = new ByteArrayOutputStream();
-		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(
-				baOutputStream));
-
-		try {
-			dout.writeInt(type);
-			
-			byte[] urlToCrawlBytes = urlToCrawl.getBytes();
-			int elementLength = urlToCrawlBytes.length;
-			dout.writeInt(elementLength);
-			dout.write(urlToCrawlBytes);
-			
-			byte[] originatingCrawlerUrlBytes = originatingCrawlerUrl.getBytes();
-			int elementLength2 = originatingCrawlerUrlBytes.length;
-			dout.writeInt(elementLength2);
-			dout.write(originatingCrawlerUrlBytes);
-
-			dout.flush();
-			marshalledBytes = baOutputStream.toByteArray();
-			baOutputStream.close();
-			dout.close();
-
-		} catch (IOException e) {
-			System.out.println("Error marshalling the bytes for OverlayNodeReportsTaskFinished.");
-			e.printStackTrace();
-		}
+		return Codec.toBytes(this);
+	}
 
-		return marshalledBytes;
+	@Override
+	public int getEncodedLength() {
+		return 4 + Codec.sizeOf(urlToCrawl) + Codec.sizeOf(originatingCrawlerUrl);
+	}
 
+	@Override
+	public void encode(ByteBuffer buffer) {
+		buffer.putInt(type);
+		Codec.putString(buffer, urlToCrawl);
+		Codec.putString(buffer, originatingCrawlerUrl);
 	}
 
 	// Unmarshalling (unpack the bytes)
 	public CrawlerSendsTask(byte[] marshalledBytes) throws IOException {
-		ByteArrayInputStream baInputStream = new ByteArrayInputStream(
-				marshalledBytes);
-		DataInputStream din = new DataInputStream(new BufferedInputStream(
-				baInputStream));
-
-		type = din.readInt();
-		
-		int identifierLength = din.readInt();
-		byte[] identifierBytes = new byte[identifierLength];
-		din.readFully(identifierBytes);
-		urlToCrawl = new String(identifierBytes);
+		this(ByteBuffer.wrap(marshalledBytes));
+	}
 
-		int identifierLength2 = din.readInt();
-		byte[] identifierBytes2 = new byte[identifierLength2];
-		din.readFully(identifierBytes2);
-		originatingCrawlerUrl = new String(identifierBytes2);
-		
-		baInputStream.close();
-		din.close();
+	// Unmarshalling straight from buffer's position
+	public CrawlerSendsTask(ByteBuffer buffer) throws IOException {
+		type = Codec.getInt(buffer);
+		urlToCrawl = Codec.getString(buffer);
+		originatingCrawlerUrl = Codec.getString(buffer);
 	}
 
 	@Override
@@ -0,0 +1,81 @@
+package cs455.harvester.wireformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CrawlerSendsTaskBatch implements Event{
+
+	private int type;
+	private String originatingCrawlerUrl;
+	private List<String> urlsToCrawl;
+
+	public CrawlerSendsTaskBatch(int type, String originatingCrawlerUrl, List<String> urlsToCrawl){
+		this.type = type;
+		this.originatingCrawlerUrl = originatingCrawlerUrl;
+		this.urlsToCrawl = urlsToCrawl;
+	}
+
+	// Marshalling (packing the bytes)
+	@Override
+	public byte[] getBytes() {
+		return Codec.toBytes(this);
+	}
+
+	@Override
+	public int getEncodedLength() {
+		int length = 4 + Codec.sizeOf(originatingCrawlerUrl) + 4;
+		for(String urlToCrawl : urlsToCrawl)
+			length += Codec.sizeOf(urlToCrawl);
+		return length;
+	}
+
+	@Override
+	public void encode(ByteBuffer buffer) {
+		buffer.putInt(type);
+		Codec.putString(buffer, originatingCrawlerUrl);
+		// Number of URLs, then each one length prefixed
+		buffer.putInt(urlsToCrawl.size());
+		for(String urlToCrawl : urlsToCrawl)
+			Codec.putString(buffer, urlToCrawl);
+	}
+
+	// Unmarshalling (unpack the bytes)
+	public CrawlerSendsTaskBatch(byte[] marshalledBytes) throws IOException {
+		this(ByteBuffer.wrap(marshalledBytes));
+	}
+
+	// Unmarshalling straight from buffer's position
+	public CrawlerSendsTaskBatch(ByteBuffer buffer) throws IOException {
+		type = Codec.getInt(buffer);
+		originatingCrawlerUrl = Codec.getString(buffer);
+		int count = Codec.getInt(buffer);
+		// Each URL takes at least its four byte length
+		if(count < 0 || count > buffer.remaining() / 4)
+			throw new IOException("Malformed batch of " + count + " URLs");
+		urlsToCrawl = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++)
+			urlsToCrawl.add(Codec.getString(buffer));
+	}
+
+	@Override
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the originatingCrawlerUrl
+	 */
+	public String getOriginatingCrawlerUrl() {
+		return originatingCrawlerUrl;
+	}
+
+	/**
+	 * @return the urlsToCrawl, in the order they were found
+	 */
+	public List<String> getUrlsToCrawl() {
+		return urlsToCrawl;
+	}
+
+}
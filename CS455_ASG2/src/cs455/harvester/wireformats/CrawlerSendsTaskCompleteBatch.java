@@ -0,0 +1,70 @@
+package cs455.harvester.wireformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class CrawlerSendsTaskCompleteBatch implements Event {
+
+	private int type;
+	private String originatingUrl;
+	private int completed;
+
+	public CrawlerSendsTaskCompleteBatch(int type, String originatingUrl, int completed){
+		this.type = type;
+		this.originatingUrl = originatingUrl;
+		this.completed = completed;
+	}
+
+	// Marshalling (packing the bytes)
+	@Override
+	public byte[] getBytes() {
+		return Codec.toBytes(this);
+	}
+
+	@Override
+	public int getEncodedLength() {
+		return 4 + Codec.sizeOf(originatingUrl) + 4;
+	}
+
+	@Override
+	public void encode(ByteBuffer buffer) {
+		buffer.putInt(type);
+		Codec.putString(buffer, originatingUrl);
+		buffer.putInt(completed);
+	}
+
+	// Unmarshalling (unpack the bytes)
+	public CrawlerSendsTaskCompleteBatch(byte[] marshalledBytes) throws IOException {
+		this(ByteBuffer.wrap(marshalledBytes));
+	}
+
+	// Unmarshalling straight from buffer's position
+	public CrawlerSendsTaskCompleteBatch(ByteBuffer buffer) throws IOException {
+		type = Codec.getInt(buffer);
+		originatingUrl = Codec.getString(buffer);
+		completed = Codec.getInt(buffer);
+	}
+
+	@Override
+	public int getType() {
+		return type;
+	}
+
+	public String getOriginatingUrl() {
+		return originatingUrl;
+	}
+
+	/**
+	 * @return number of forwarded tasks this acknowledges as complete
+	 */
+	public int getCompleted() {
+		return completed;
+	}
+
+	@Override
+	public String toString() {
+		return "CrawlerSendsTaskCompleteBatch [type=" + type + ", originatingUrl="
+				+ originatingUrl + ", completed=" + completed + "]";
+	}
+
+}
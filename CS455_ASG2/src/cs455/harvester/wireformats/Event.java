@@ -1,8 +1,14 @@
 package cs455.harvester.wireformats;
 
+import java.nio.ByteBuffer;
+
 public interface Event {
 	
 	public byte[] getBytes();
 	public int getType();
+	// Bytes encode(ByteBuffer) writes
+	public int getEncodedLength();
+	// Write the Event at buffer's position, as getBytes() would return it
+	public void encode(ByteBuffer buffer);
 	
 }
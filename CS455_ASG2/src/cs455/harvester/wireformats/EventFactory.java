@@ -1,8 +1,8 @@
 package cs455.harvester.wireformats;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 public class EventFactory {
 	// Singleton instance
@@ -46,43 +46,24 @@ public class EventFactory {
 		return null;
 	}
 
-	public Event getEvent(byte[] data) {
-		int type = getType(data);
-
+	/**
+	 * Build a batch Event, URLs aren't packed into a
+	 * delimited message since they may contain ';'
+	 * @param int type
+	 * @param String originator, root URL of the sending Crawler
+	 * @param List<String> urls, the tasks for CRAWLER_SENDS_TASK_BATCH
+	 * @param int completed, the count for CRAWLER_SENDS_TASK_COMPLETE_BATCH
+	 * @return Event
+	 */
+	public Event buildBatchEvent(int type, String originator, List<String> urls, int completed) {
 		switch (type) {
 
-		case Protocol.CRAWLER_SENDS_TASK:
-			try {
-				return new CrawlerSendsTask(data);
-			} catch (IOException e) {
-				System.out.println("Error creating CrawlerSendsTask event: ");
-				e.printStackTrace();
-			}
+		case Protocol.CRAWLER_SENDS_TASK_BATCH:
+			return new CrawlerSendsTaskBatch(type, originator, urls);
 
-		case Protocol.CRAWLER_SENDS_TASK_COMPLETE:
-			try {
-				return new CrawlerSendsTaskComplete(data);
-			} catch (IOException e) {
-				System.out.println("Error creating CrawlerSendsTaskComplete event: ");
-				e.printStackTrace();
-			}
+		case Protocol.CRAWLER_SENDS_TASK_COMPLETE_BATCH:
+			return new CrawlerSendsTaskCompleteBatch(type, originator, completed);
 
-		case Protocol.CRAWLER_SENDS_FINISHED:
-			try {
-				return new CrawlerSendsFinished(data);
-			} catch (IOException e) {
-				System.out.println("Error creating CrawlerSendsFinished event: ");
-				e.printStackTrace();
-			}
-			
-		case Protocol.CRAWLER_SENDS_INCOMPLETE:
-			try {
-				return new CrawlerSendsIncomplete(data);
-			} catch (IOException e) {
-				System.out.println("Error creating CrawlerSendsIncomplete event: ");
-				e.printStackTrace();
-			}
-			
 		default:
 			System.out.println("Event type not recognized");
 
@@ -91,34 +72,59 @@ public class EventFactory {
 		return null;
 	}
 
-	/********************************************
-	 ****************** HELPERS *****************
-	 ********************************************/
+	public Event getEvent(byte[] data) {
+		return getEvent(ByteBuffer.wrap(data));
+	}
 
 	/**
-	 * Get the type based on byte[] passed
-	 * @param data
-	 * @return int
+	 * Decode the Event between data's position and limit, e.g. a frame
+	 * still in a receive buffer. The type is read once, in place
+	 * @param ByteBuffer data
+	 * @return Event, null if the type isn't recognized or it's malformed
 	 */
-	private int getType(byte[] data){
-		ByteArrayInputStream baInputStream = new ByteArrayInputStream(data);
-		DataInputStream din = new DataInputStream(baInputStream);
-		int type = -1;
-		try {
-			type = din.readInt();
-		} catch (IOException e) {
-			System.out.println("EventFactory - error getting data type: ");
-			e.printStackTrace();
+	public Event getEvent(ByteBuffer data) {
+		if(data.remaining() < 4){
+			System.out.println("EventFactory - message too short for a type");
+			return null;
 		}
+		int type = data.getInt(data.position());
+
 		try {
-			baInputStream.close();
-			din.close();
+			switch (type) {
+
+			case Protocol.CRAWLER_SENDS_TASK:
+				return new CrawlerSendsTask(data);
+
+			case Protocol.CRAWLER_SENDS_TASK_COMPLETE:
+				return new CrawlerSendsTaskComplete(data);
+
+			case Protocol.CRAWLER_SENDS_FINISHED:
+				return new CrawlerSendsFinished(data);
+
+			case Protocol.CRAWLER_SENDS_INCOMPLETE:
+				return new CrawlerSendsIncomplete(data);
+
+			case Protocol.CRAWLER_SENDS_TASK_BATCH:
+				return new CrawlerSendsTaskBatch(data);
+
+			case Protocol.CRAWLER_SENDS_TASK_COMPLETE_BATCH:
+				return new CrawlerSendsTaskCompleteBatch(data);
+
+			default:
+				System.out.println("Event type not recognized");
+
+			}
 		} catch (IOException e) {
-			System.out.println("EventFactory - error closing streams: ");
+			System.out.println("Error creating event of type " + type + ": ");
 			e.printStackTrace();
 		}
-		return type;
-	}// END getType
+
+		return null;
+	}
+
+	/********************************************
+	 ****************** HELPERS *****************
+	 ********************************************/
 
 	/**
 	 * Gets the string from the getEvent method, parameters delimited by ';'
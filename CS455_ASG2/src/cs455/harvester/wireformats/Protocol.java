@@ -5,4 +5,6 @@ public interface Protocol {
 	final static int CRAWLER_SENDS_TASK					= 2;
 	final static int CRAWLER_SENDS_FINISHED				= 3;
 	final static int CRAWLER_SENDS_INCOMPLETE			= 4;
+	final static int CRAWLER_SENDS_TASK_BATCH			= 5;
+	final static int CRAWLER_SENDS_TASK_COMPLETE_BATCH	= 6;
 }
\ No newline at end of file